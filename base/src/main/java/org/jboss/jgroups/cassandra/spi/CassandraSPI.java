@@ -39,6 +39,16 @@ public interface CassandraSPI
     */
    boolean createKeyspace(String keyspaceName);
 
+   /**
+    * Create Cassandra keyspace with the profile's replication settings.
+    *
+    * @param keyspaceName the keyspace name
+    * @param profile the discovery profile
+    * @return true if new keyspace was created, false otherwise;
+    *         e.g. keyspace could exist before, hence we return false
+    */
+   boolean createKeyspace(String keyspaceName, DiscoveryProfile profile);
+
    /**
     * Drop Cassandra keyspace.
     *
@@ -56,6 +66,17 @@ public interface CassandraSPI
     */
    boolean createColumnFamily(String keyspaceName, String columnFamily);
 
+   /**
+    * Create Cassandra column family with the profile's cache, tombstone and read repair settings.
+    *
+    * @param keyspaceName the keyspace name
+    * @param columnFamily the column family
+    * @param profile the discovery profile
+    * @return true if new column family was created, false otherwise;
+    *         e.g. column family could exist before, hence we return false
+    */
+   boolean createColumnFamily(String keyspaceName, String columnFamily, DiscoveryProfile profile);
+
    /**
     * Drop Cassandra column family.
     *
@@ -63,4 +84,13 @@ public interface CassandraSPI
     * @param columnFamily the column family
     */
    void dropColumnFamily(String keyspaceName, String columnFamily);
+
+   /**
+    * Does Cassandra column family hold no live entries.
+    *
+    * @param keyspaceName the keyspace name
+    * @param columnFamily the column family
+    * @return true if there are no live entries or the column family does not exist, false otherwise
+    */
+   boolean isColumnFamilyEmpty(String keyspaceName, String columnFamily);
 }
@@ -0,0 +1,125 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+* 
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.spi;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+/**
+ * Drops cluster column families once their last member is gone.
+ * <p/>
+ * A drop is deferred by a grace period, so a restarting member cancels it by reconnecting,
+ * and it is only done if the column family holds no live entries by then.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class ColumnFamilyReaper
+{
+   private static final Log log = LogFactory.getLog(ColumnFamilyReaper.class);
+
+   private static final Map<String, ScheduledFuture<?>> pending = new HashMap<String, ScheduledFuture<?>>();
+   private static ScheduledExecutorService executor;
+
+   private ColumnFamilyReaper()
+   {
+   }
+
+   /**
+    * Schedule the drop, replacing a pending one of the same column family.
+    *
+    * @param spi the spi
+    * @param keyspaceName the keyspace name
+    * @param columnFamily the column family
+    * @param gracePeriod the grace period in milliseconds
+    */
+   public static void schedule(final CassandraSPI spi, final String keyspaceName, final String columnFamily, long gracePeriod)
+   {
+      final String id = keyspaceName + "/" + columnFamily;
+      synchronized (pending)
+      {
+         cancel(keyspaceName, columnFamily);
+         if (executor == null)
+         {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+               public Thread newThread(Runnable r)
+               {
+                  Thread thread = new Thread(r, "ColumnFamilyReaper");
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+         }
+         pending.put(id, executor.schedule(new Runnable()
+         {
+            public void run()
+            {
+               synchronized (pending)
+               {
+                  pending.remove(id);
+               }
+               reap(spi, keyspaceName, columnFamily);
+            }
+         }, gracePeriod, TimeUnit.MILLISECONDS));
+      }
+   }
+
+   /**
+    * Cancel a pending drop, e.g. when a member connects.
+    *
+    * @param keyspaceName the keyspace name
+    * @param columnFamily the column family
+    * @return true if a drop was pending, false otherwise
+    */
+   public static boolean cancel(String keyspaceName, String columnFamily)
+   {
+      synchronized (pending)
+      {
+         ScheduledFuture<?> future = pending.remove(keyspaceName + "/" + columnFamily);
+         return future != null && future.cancel(false);
+      }
+   }
+
+   private static void reap(CassandraSPI spi, String keyspaceName, String columnFamily)
+   {
+      try
+      {
+         // members elsewhere still have entries, the last one to leave drops it
+         if (spi.isColumnFamilyEmpty(keyspaceName, columnFamily))
+            spi.dropColumnFamily(keyspaceName, columnFamily);
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot drop column family " + keyspaceName + "/" + columnFamily, t);
+      }
+   }
+}
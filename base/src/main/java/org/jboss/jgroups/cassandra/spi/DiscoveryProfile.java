@@ -0,0 +1,141 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+* 
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.spi;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keyspace and column family settings tuned for discovery tables:
+ * tiny, hot and constantly rewritten.
+ * <p/>
+ * The row cache is on, read repair is off, and tombstones are purged after an hour
+ * instead of ten days; a member entry resurrected by a replica that was down
+ * longer than that is harmless, it is rewritten or swept like any stale entry.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DiscoveryProfile
+{
+   private String replicationStrategy;
+   private Map<String, String> strategyOptions = Collections.emptyMap();
+   private int replicationFactor = 1;
+   private double rowCacheSize = 1000;
+   private int gcGraceSeconds = 3600;
+   private double readRepairChance = 0;
+
+   /**
+    * Get the replication strategy.
+    *
+    * @return the strategy, null for the SPI's default
+    */
+   public String getReplicationStrategy()
+   {
+      return replicationStrategy;
+   }
+
+   public void setReplicationStrategy(String replicationStrategy)
+   {
+      this.replicationStrategy = replicationStrategy;
+   }
+
+   /**
+    * Get the strategy options, e.g. replicas per data center.
+    *
+    * @return the options
+    */
+   public Map<String, String> getStrategyOptions()
+   {
+      return strategyOptions;
+   }
+
+   public void setStrategyOptions(Map<String, String> strategyOptions)
+   {
+      if (strategyOptions == null)
+         throw new IllegalArgumentException("Null strategy options");
+      this.strategyOptions = Collections.unmodifiableMap(new HashMap<String, String>(strategyOptions));
+   }
+
+   public int getReplicationFactor()
+   {
+      return replicationFactor;
+   }
+
+   public void setReplicationFactor(int replicationFactor)
+   {
+      if (replicationFactor < 1)
+         throw new IllegalArgumentException("Replication factor must be positive: " + replicationFactor);
+      this.replicationFactor = replicationFactor;
+   }
+
+   /**
+    * Get the row cache size.
+    *
+    * @return number of rows, or fraction of all rows if less than 1; 0 disables it
+    */
+   public double getRowCacheSize()
+   {
+      return rowCacheSize;
+   }
+
+   public void setRowCacheSize(double rowCacheSize)
+   {
+      if (rowCacheSize < 0)
+         throw new IllegalArgumentException("Negative row cache size: " + rowCacheSize);
+      this.rowCacheSize = rowCacheSize;
+   }
+
+   public int getGcGraceSeconds()
+   {
+      return gcGraceSeconds;
+   }
+
+   public void setGcGraceSeconds(int gcGraceSeconds)
+   {
+      if (gcGraceSeconds < 0)
+         throw new IllegalArgumentException("Negative gc grace: " + gcGraceSeconds);
+      this.gcGraceSeconds = gcGraceSeconds;
+   }
+
+   public double getReadRepairChance()
+   {
+      return readRepairChance;
+   }
+
+   public void setReadRepairChance(double readRepairChance)
+   {
+      if (readRepairChance < 0 || readRepairChance > 1)
+         throw new IllegalArgumentException("Read repair chance must be between 0 and 1: " + readRepairChance);
+      this.readRepairChance = readRepairChance;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "DiscoveryProfile[strategy=" + replicationStrategy + ", options=" + strategyOptions +
+            ", rf=" + replicationFactor + ", rowCache=" + rowCacheSize + ", gcGrace=" + gcGraceSeconds +
+            ", readRepair=" + readRepairChance + "]";
+   }
+}
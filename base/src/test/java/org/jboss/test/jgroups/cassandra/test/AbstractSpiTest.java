@@ -24,6 +24,7 @@
 package org.jboss.test.jgroups.cassandra.test;
 
 import org.jboss.jgroups.cassandra.spi.CassandraSPI;
+import org.junit.Assert;
 import org.junit.Test;
 
 /**
@@ -51,6 +52,7 @@ public abstract class AbstractSpiTest extends AbstractCassandraTest
          try
          {
             spi.createColumnFamily(keyspace, columnFamily);
+            Assert.assertTrue(spi.isColumnFamilyEmpty(keyspace, columnFamily));
          }
          finally
          {
@@ -0,0 +1,250 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jgroups.cassandra.cli;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.Address;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.protocols.PingData;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.UUID;
+
+/**
+ * Discovery benchmark.
+ * <p/>
+ * Each worker owns its own ping, hence its own connection,
+ * and runs a random mix of writes, reads and removes against a synthetic cluster.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class Bench
+{
+   private static final String[] OPS = {"write", "read", "remove"};
+
+   private final String host;
+   private final int port;
+   private final String keyspace;
+   private final String clustername;
+
+   private int threads = 4;
+   private int members = 10;
+   private int duration = 30;
+   private int[] mix = {20, 75, 5};
+
+   private List<PingData> cluster;
+   private LatencyHistogram[] histograms;
+
+   public Bench(String host, int port, String keyspace, String clustername)
+   {
+      if (keyspace == null)
+         throw new IllegalArgumentException("Null keyspace");
+      if (clustername == null)
+         throw new IllegalArgumentException("Null cluster name, use column family option");
+
+      this.host = host;
+      this.port = port;
+      this.keyspace = keyspace;
+      this.clustername = clustername;
+   }
+
+   /**
+    * Run the benchmark and print the results.
+    *
+    * @param out the output
+    * @throws Exception for any error
+    */
+   public void run(PrintStream out) throws Exception
+   {
+      cluster = createCluster();
+      histograms = new LatencyHistogram[OPS.length];
+      for (int i = 0; i < histograms.length; i++)
+         histograms[i] = new LatencyHistogram();
+
+      BenchPing setup = new BenchPing(host, port, keyspace);
+      setup.open();
+      try
+      {
+         for (PingData data : cluster)
+            setup.writeToFile(data, clustername);
+
+         out.println(String.format("Running %s for %d s: threads=%d members=%d mix=%d/%d/%d (write/read/remove)",
+               clustername, duration, threads, members, mix[0], mix[1], mix[2]));
+
+         final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+         final CountDownLatch done = new CountDownLatch(threads);
+         long start = System.nanoTime();
+         for (int i = 0; i < threads; i++)
+         {
+            final BenchPing ping = new BenchPing(host, port, keyspace);
+            ping.open();
+            Thread worker = new Thread(new Runnable()
+            {
+               public void run()
+               {
+                  try
+                  {
+                     work(ping, deadline);
+                  }
+                  finally
+                  {
+                     ping.destroy();
+                     done.countDown();
+                  }
+               }
+            }, "Bench-" + i);
+            worker.setDaemon(true);
+            worker.start();
+         }
+         done.await();
+         double seconds = (System.nanoTime() - start) / 1e9;
+
+         long total = 0;
+         for (LatencyHistogram histogram : histograms)
+            total += histogram.getCount();
+         out.println(String.format("Total: %d ops in %.1f s, %.1f ops/s", total, seconds, total / seconds));
+         for (int i = 0; i < OPS.length; i++)
+            histograms[i].print(OPS[i], seconds, out);
+      }
+      finally
+      {
+         for (PingData data : cluster)
+            setup.remove(clustername, data.getAddress());
+         setup.destroy();
+      }
+   }
+
+   private void work(BenchPing ping, long deadline)
+   {
+      Random random = new Random();
+      int sum = mix[0] + mix[1] + mix[2];
+      while (System.nanoTime() - deadline < 0)
+      {
+         int r = random.nextInt(sum);
+         int op = (r < mix[0]) ? 0 : (r < mix[0] + mix[1]) ? 1 : 2;
+         PingData data = cluster.get(random.nextInt(cluster.size()));
+
+         long start = System.nanoTime();
+         try
+         {
+            switch (op)
+            {
+               case 0:
+                  ping.writeChecked(data, clustername);
+                  break;
+               case 1:
+                  ping.readChecked(clustername);
+                  break;
+               default:
+                  ping.removeChecked(clustername, data.getAddress());
+            }
+            histograms[op].record(System.nanoTime() - start);
+         }
+         catch (Exception e)
+         {
+            histograms[op].error();
+         }
+
+         if (op == 2)
+         {
+            // keep the cluster size stable, timed as a write of its own
+            start = System.nanoTime();
+            try
+            {
+               ping.writeChecked(data, clustername);
+               histograms[0].record(System.nanoTime() - start);
+            }
+            catch (Exception e)
+            {
+               histograms[0].error();
+            }
+         }
+      }
+   }
+
+   private List<PingData> createCluster() throws Exception
+   {
+      List<PingData> result = new ArrayList<PingData>(members);
+      for (int i = 0; i < members; i++)
+      {
+         Address address = UUID.randomUUID();
+         String name = "bench-" + i;
+         UUID.add((UUID) address, name);
+         List<PhysicalAddress> physical = new ArrayList<PhysicalAddress>(1);
+         physical.add(new IpAddress("127.0.0.1", 7800 + i));
+         result.add(new PingData(address, null, false, name, physical));
+      }
+      return result;
+   }
+
+   public void setThreads(int threads)
+   {
+      if (threads < 1)
+         throw new IllegalArgumentException("Threads must be positive: " + threads);
+      this.threads = threads;
+   }
+
+   public void setMembers(int members)
+   {
+      if (members < 1)
+         throw new IllegalArgumentException("Members must be positive: " + members);
+      this.members = members;
+   }
+
+   public void setDuration(int duration)
+   {
+      if (duration < 1)
+         throw new IllegalArgumentException("Duration must be positive: " + duration);
+      this.duration = duration;
+   }
+
+   /**
+    * Set the op mix.
+    *
+    * @param mix the write/read/remove weights, e.g. 20/75/5
+    */
+   public void setMix(String mix)
+   {
+      String[] split = mix.split("/");
+      if (split.length != OPS.length)
+         throw new IllegalArgumentException("Mix must be write/read/remove weights: " + mix);
+
+      int[] temp = new int[OPS.length];
+      int sum = 0;
+      for (int i = 0; i < split.length; i++)
+      {
+         temp[i] = Integer.parseInt(split[i].trim());
+         if (temp[i] < 0)
+            throw new IllegalArgumentException("Negative weight: " + mix);
+         sum += temp[i];
+      }
+      if (sum == 0)
+         throw new IllegalArgumentException("Empty mix: " + mix);
+      this.mix = temp;
+   }
+}
@@ -0,0 +1,142 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jgroups.cassandra.cli;
+
+import java.util.List;
+
+import org.jboss.jgroups.cassandra.CASSANDRA_PING;
+import org.jgroups.Address;
+import org.jgroups.protocols.PingData;
+
+/**
+ * Ping outside of a protocol stack, used to benchmark discovery operations.
+ * <p/>
+ * The ping's own operations log and swallow failures,
+ * the checked variants run the same write and remove paths on the calling thread but throw them,
+ * so the bench can count errors. Write-behind is bypassed, it would only time a queue offer.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class BenchPing extends CASSANDRA_PING
+{
+   public BenchPing(String host, int port, String keyspace)
+   {
+      this.host = host;
+      this.port = port;
+      this.keyspace = keyspace;
+   }
+
+   public void open()
+   {
+      createRootDir();
+   }
+
+   @Override
+   public void writeToFile(PingData data, String clustername)
+   {
+      super.writeToFile(data, clustername);
+   }
+
+   @Override
+   public List<PingData> readAll(String clustername)
+   {
+      return super.readAll(clustername);
+   }
+
+   @Override
+   public void remove(String clustername, Address addr)
+   {
+      super.remove(clustername, addr);
+   }
+
+   /**
+    * Write ping data through the ping's own write path, failing on any error.
+    *
+    * @param data the ping data
+    * @param clustername the cluster name
+    * @throws Exception for any error
+    */
+   @Override
+   public void writeChecked(PingData data, String clustername) throws Exception
+   {
+      try
+      {
+         super.writeChecked(data, clustername);
+      }
+      catch (Exception e)
+      {
+         throw e;
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException(t);
+      }
+   }
+
+   /**
+    * Read all ping data, failing on any error.
+    *
+    * @param clustername the cluster name
+    * @return ping data
+    * @throws Exception for any error
+    */
+   public List<PingData> readChecked(String clustername) throws Exception
+   {
+      try
+      {
+         return decode(readEntries(clustername));
+      }
+      catch (Exception e)
+      {
+         throw e;
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException(t);
+      }
+   }
+
+   /**
+    * Remove ping data through the ping's own remove path, failing on any error.
+    *
+    * @param clustername the cluster name
+    * @param addr the member address
+    * @throws Exception for any error
+    */
+   @Override
+   public void removeChecked(String clustername, Address addr) throws Exception
+   {
+      try
+      {
+         super.removeChecked(clustername, addr);
+      }
+      catch (Exception e)
+      {
+         throw e;
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException(t);
+      }
+   }
+}
@@ -0,0 +1,120 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jgroups.cassandra.cli;
+
+import java.io.PrintStream;
+
+/**
+ * Latency histogram with power of two microsecond buckets.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class LatencyHistogram
+{
+   private static final int BUCKETS = 40;
+   private static final int BAR = 40;
+
+   private final long[] counts = new long[BUCKETS];
+   private long count;
+   private long errors;
+   private long total;
+   private long max;
+
+   /**
+    * Record successful operation.
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public synchronized void record(long nanos)
+   {
+      long micros = Math.max(1, nanos / 1000);
+      int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+      counts[bucket]++;
+      count++;
+      total += nanos;
+      max = Math.max(max, nanos);
+   }
+
+   /**
+    * Record failed operation.
+    */
+   public synchronized void error()
+   {
+      errors++;
+   }
+
+   public synchronized long getCount()
+   {
+      return count;
+   }
+
+   /**
+    * Get the upper bound of the percentile's bucket.
+    *
+    * @param percentile the percentile, e.g. 99
+    * @return latency upper bound in microseconds
+    */
+   public synchronized long percentile(double percentile)
+   {
+      long limit = (long) Math.ceil(percentile / 100 * count);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         seen += counts[i];
+         if (seen >= limit && seen > 0)
+            return 1L << (i + 1);
+      }
+      return 0;
+   }
+
+   /**
+    * Print the histogram.
+    *
+    * @param name the operation name
+    * @param seconds the run duration in seconds
+    * @param out the output
+    */
+   public synchronized void print(String name, double seconds, PrintStream out)
+   {
+      out.println(String.format("%-8s ops=%d errors=%d throughput=%.1f ops/s avg=%.3f ms max=%.3f ms p50<%d us p99<%d us p99.9<%d us",
+            name, count, errors, count / seconds, count > 0 ? total / (double) count / 1000000 : 0, max / 1000000.0,
+            percentile(50), percentile(99), percentile(99.9)));
+
+      long peak = 0;
+      for (long c : counts)
+         peak = Math.max(peak, c);
+      if (peak == 0)
+         return;
+
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         if (counts[i] == 0)
+            continue;
+
+         StringBuilder bar = new StringBuilder();
+         for (long j = 0; j < counts[i] * BAR / peak; j++)
+            bar.append('#');
+         out.println(String.format("  < %10d us %10d %s", 1L << (i + 1), counts[i], bar));
+      }
+   }
+}
@@ -22,7 +22,10 @@
 */
 package org.jboss.jgroups.cassandra.cli;
 
+import java.io.File;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import com.martiansoftware.jsap.FlaggedOption;
 import com.martiansoftware.jsap.JSAP;
@@ -30,7 +33,9 @@ import com.martiansoftware.jsap.JSAPException;
 import com.martiansoftware.jsap.JSAPResult;
 import com.martiansoftware.jsap.Parameter;
 import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
 import org.jboss.jgroups.cassandra.plugins.BaseCassandraSPI;
+import org.jboss.jgroups.cassandra.spi.DiscoveryProfile;
 
 /**
  * Cassandra SPI main, v7.
@@ -54,6 +59,7 @@ public class Main
 
       String keyspaceName = commandLineOptions.getString("keyspaceName");
       String columnFamily = commandLineOptions.getString("columnFamily");
+      DiscoveryProfile profile = commandLineOptions.getBoolean("profile") ? createProfile(commandLineOptions) : null;
 
       String commandStr = commandLineOptions.getString("command");
       Command comamnd = Command.valueOf(commandStr.toUpperCase());
@@ -61,7 +67,7 @@ public class Main
       switch (comamnd)
       {
          case KS_CREATE:
-            cassandra.createKeyspace(keyspaceName);
+            cassandra.createKeyspace(keyspaceName, profile);
             break;
 
          case KS_DELETE:
@@ -69,13 +75,61 @@ public class Main
             break;
 
          case CF_CREATE:
-            cassandra.createColumnFamily(keyspaceName, columnFamily);
+            cassandra.createColumnFamily(keyspaceName, columnFamily, profile);
             break;
 
          case CF_DELETE:
             cassandra.dropColumnFamily(keyspaceName, columnFamily);
             break;
+
+         case BENCH:
+            Bench bench = new Bench(commandLineOptions.getString("host"), commandLineOptions.getInt("port"), keyspaceName, columnFamily);
+            bench.setThreads(commandLineOptions.getInt("threads"));
+            bench.setMembers(commandLineOptions.getInt("members"));
+            bench.setDuration(commandLineOptions.getInt("duration"));
+            bench.setMix(commandLineOptions.getString("mix"));
+            bench.run(System.out);
+            break;
+
+         case MIGRATE:
+            Migrate migrate = new Migrate(commandLineOptions.getString("host"), commandLineOptions.getInt("port"), keyspaceName, cassandra);
+            if (columnFamily != null)
+               migrate.setSourceColumnFamily(columnFamily);
+            migrate.setTargetKeyspace(commandLineOptions.getString("targetKeyspace"));
+            migrate.setProfile(profile);
+            migrate.setThreads(commandLineOptions.getInt("threads"));
+            migrate.setPageSize(commandLineOptions.getInt("pageSize"));
+            migrate.setRate(commandLineOptions.getDouble("rate"));
+            String checkpoint = commandLineOptions.getString("checkpoint");
+            if (checkpoint != null)
+               migrate.setCheckpoint(new File(checkpoint));
+            migrate.run(System.out);
+            break;
+      }
+   }
+
+   private DiscoveryProfile createProfile(JSAPResult commandLineOptions)
+   {
+      DiscoveryProfile profile = new DiscoveryProfile();
+      profile.setReplicationStrategy(commandLineOptions.getString("replicationStrategy"));
+      profile.setReplicationFactor(commandLineOptions.getInt("replicationFactor"));
+      String options = commandLineOptions.getString("strategyOptions");
+      if (options != null)
+      {
+         Map<String, String> map = new HashMap<String, String>();
+         for (String option : options.split(","))
+         {
+            String[] split = option.split(":");
+            if (split.length != 2)
+               throw new IllegalArgumentException("Strategy option must be name:value: " + option);
+            map.put(split[0].trim(), split[1].trim());
+         }
+         profile.setStrategyOptions(map);
       }
+      profile.setRowCacheSize(commandLineOptions.getDouble("rowCache"));
+      profile.setGcGraceSeconds(commandLineOptions.getInt("gcGrace"));
+      profile.setReadRepairChance(commandLineOptions.getDouble("readRepairChance"));
+      return profile;
    }
 
    private JSAPResult parseParameters(String[] args) throws Exception
@@ -107,7 +161,22 @@ public class Main
                   new FlaggedOption("port", JSAP.INTEGER_PARSER, "9160", JSAP.NOT_REQUIRED, 'P', "port", "Cassandra port"),
                   new FlaggedOption("keyspaceName", JSAP.STRING_PARSER, null, JSAP.REQUIRED, 'k', "keyspaceName", "Keyspace name"),
                   new FlaggedOption("columnFamily", JSAP.STRING_PARSER, null, JSAP.NOT_REQUIRED, 'f', "columnFamily", "Column family"),
-                  new FlaggedOption("command", JSAP.STRING_PARSER, null, JSAP.REQUIRED, 'c', "command", "Use one of the commands: cf_create, cf_delete, ks_create, ks_delete")
+                  new FlaggedOption("command", JSAP.STRING_PARSER, null, JSAP.REQUIRED, 'c', "command", "Use one of the commands: cf_create, cf_delete, ks_create, ks_delete, bench, migrate"),
+                  new FlaggedOption("threads", JSAP.INTEGER_PARSER, "4", JSAP.NOT_REQUIRED, 't', "threads", "Bench or migrate concurrency"),
+                  new FlaggedOption("members", JSAP.INTEGER_PARSER, "10", JSAP.NOT_REQUIRED, 'm', "members", "Bench cluster size"),
+                  new FlaggedOption("duration", JSAP.INTEGER_PARSER, "30", JSAP.NOT_REQUIRED, 'd', "duration", "Bench duration in seconds"),
+                  new FlaggedOption("mix", JSAP.STRING_PARSER, "20/75/5", JSAP.NOT_REQUIRED, 'x', "mix", "Bench write/read/remove weights"),
+                  new FlaggedOption("targetKeyspace", JSAP.STRING_PARSER, null, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "targetKeyspace", "Migrate target keyspace, defaults to the source keyspace"),
+                  new FlaggedOption("pageSize", JSAP.INTEGER_PARSER, "500", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "pageSize", "Migrate rows read per page"),
+                  new FlaggedOption("rate", JSAP.DOUBLE_PARSER, "0", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "rate", "Migrate max entries per second, 0 for no limit"),
+                  new FlaggedOption("checkpoint", JSAP.STRING_PARSER, null, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "checkpoint", "Migrate checkpoint file, to resume an interrupted migration"),
+                  new Switch("profile", JSAP.NO_SHORTFLAG, "profile", "Create keyspace and column family with the discovery profile"),
+                  new FlaggedOption("replicationStrategy", JSAP.STRING_PARSER, null, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "replicationStrategy", "Profile replication strategy, e.g. NetworkTopologyStrategy"),
+                  new FlaggedOption("replicationFactor", JSAP.INTEGER_PARSER, "1", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "replicationFactor", "Profile replication factor"),
+                  new FlaggedOption("strategyOptions", JSAP.STRING_PARSER, null, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "strategyOptions", "Profile strategy options, e.g. DC1:3,DC2:2"),
+                  new FlaggedOption("rowCache", JSAP.DOUBLE_PARSER, "1000", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "rowCache", "Profile row cache size, 0 disables it"),
+                  new FlaggedOption("gcGrace", JSAP.INTEGER_PARSER, "3600", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "gcGrace", "Profile gc grace seconds"),
+                  new FlaggedOption("readRepairChance", JSAP.DOUBLE_PARSER, "0", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "readRepairChance", "Profile read repair chance")
             }
       );
    }
@@ -117,6 +186,8 @@ public class Main
       KS_CREATE,
       KS_DELETE,
       CF_CREATE,
-      CF_DELETE
+      CF_DELETE,
+      BENCH,
+      MIGRATE
    }
 }
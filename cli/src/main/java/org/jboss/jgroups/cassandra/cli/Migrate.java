@@ -0,0 +1,437 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jgroups.cassandra.cli;
+
+import static org.jgroups.util.Util.streamableToByteBuffer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.jboss.jgroups.cassandra.CASSANDRA_PING;
+import org.jboss.jgroups.cassandra.plugins.ClientConnection;
+import org.jboss.jgroups.cassandra.plugins.ClientExecutor;
+import org.jboss.jgroups.cassandra.plugins.DaemonThreadFactory;
+import org.jboss.jgroups.cassandra.plugins.RateLimiter;
+import org.jboss.jgroups.cassandra.spi.CassandraSPI;
+import org.jboss.jgroups.cassandra.spi.DiscoveryProfile;
+import org.jgroups.protocols.PingData;
+import org.jgroups.util.Util;
+
+/**
+ * Migrates ping data from the v6 layout, a single column family with a column per cluster,
+ * to the v7 layout, a column family per cluster.
+ * <p/>
+ * Source pages are read in key order and copied by parallel batch_mutate workers,
+ * keeping the original timestamps, so a copy can be repeated safely.
+ * The end key of the last page copied in full is checkpointed, a re-run resumes from there.
+ * <p/>
+ * The v6 ping stored row keys as strings, which mangles the binary address,
+ * hence v7 keys are re-created from the address in the ping data.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class Migrate
+{
+   private static final String UTF8 = CASSANDRA_PING.UTF8;
+
+   private final String host;
+   private final int port;
+   private final String keyspace;
+   private final CassandraSPI spi;
+
+   private String sourceColumnFamily = "clusters";
+   private String targetKeyspace;
+   private DiscoveryProfile profile;
+   private int threads = 4;
+   private int pageSize = 500;
+   private double rate;
+   private File checkpoint;
+
+   private final Set<String> created = new HashSet<String>();
+
+   public Migrate(String host, int port, String keyspace, CassandraSPI spi)
+   {
+      if (keyspace == null)
+         throw new IllegalArgumentException("Null keyspace");
+      if (spi == null)
+         throw new IllegalArgumentException("Null spi");
+
+      this.host = host;
+      this.port = port;
+      this.keyspace = keyspace;
+      this.spi = spi;
+   }
+
+   /**
+    * Run the migration.
+    *
+    * @param out the progress output
+    * @throws Exception for any error
+    */
+   public void run(PrintStream out) throws Exception
+   {
+      String target = (targetKeyspace != null) ? targetKeyspace : keyspace;
+      RateLimiter limiter = (rate > 0) ? new RateLimiter(rate) : null;
+
+      ClientConnection reader = new ClientConnection(host, port, keyspace);
+      final BlockingQueue<ClientConnection> writers = new LinkedBlockingQueue<ClientConnection>();
+      for (int i = 0; i < threads; i++)
+         writers.add(new ClientConnection(host, port, target));
+      ExecutorService workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Migrate"));
+
+      LinkedList<Page> inFlight = new LinkedList<Page>();
+      byte[] start = readCheckpoint();
+      if (start.length > 0)
+         out.println("Resuming after key " + toHex(start));
+
+      long rows = 0;
+      long entries = 0;
+      long skipped = 0;
+      long begin = System.currentTimeMillis();
+      try
+      {
+         while (true)
+         {
+            List<KeySlice> slices = readPage(reader, start);
+            final Map<ByteBuffer, Map<String, List<Mutation>>> batch = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+            int count = 0;
+            for (KeySlice ks : slices)
+            {
+               // start key is inclusive, it was copied with the previous page
+               if (start.length > 0 && Arrays.equals(ks.getKey(), start))
+                  continue;
+
+               rows++;
+               for (ColumnOrSuperColumn cosc : ks.getColumns())
+               {
+                  Column column = cosc.column;
+                  byte[] key;
+                  try
+                  {
+                     key = streamableToByteBuffer(((PingData) Util.streamableFromByteBuffer(PingData.class, column.getValue())).getAddress());
+                  }
+                  catch (Exception e)
+                  {
+                     skipped++;
+                     continue;
+                  }
+
+                  String clustername = new String(column.getName(), UTF8);
+                  ensureColumnFamily(target, clustername);
+
+                  ColumnOrSuperColumn copy = new ColumnOrSuperColumn();
+                  copy.setColumn(new Column(ByteBuffer.wrap(CASSANDRA_PING.DATA), ByteBuffer.wrap(column.getValue()), column.getTimestamp()));
+                  Mutation mutation = new Mutation();
+                  mutation.setColumn_or_supercolumn(copy);
+                  // a member of several clusters has a column per cluster in the same source row
+                  ByteBuffer row = ByteBuffer.wrap(key);
+                  Map<String, List<Mutation>> mutations = batch.get(row);
+                  if (mutations == null)
+                  {
+                     mutations = new HashMap<String, List<Mutation>>();
+                     batch.put(row, mutations);
+                  }
+                  List<Mutation> list = mutations.get(clustername);
+                  if (list == null)
+                  {
+                     list = new ArrayList<Mutation>();
+                     mutations.put(clustername, list);
+                  }
+                  list.add(mutation);
+                  count++;
+               }
+            }
+            entries += count;
+
+            boolean last = slices.size() < pageSize;
+            byte[] end = slices.isEmpty() ? start : slices.get(slices.size() - 1).getKey();
+            Future<?> future = null;
+            if (batch.isEmpty() == false)
+            {
+               if (limiter != null)
+                  limiter.acquire(count);
+               future = workers.submit(new Callable<Object>()
+               {
+                  public Object call() throws Exception
+                  {
+                     write(writers, batch);
+                     return null;
+                  }
+               });
+            }
+            inFlight.add(new Page(end, future));
+
+            // checkpoint only pages whose predecessors are all copied
+            while (inFlight.isEmpty() == false && (inFlight.size() > threads * 2 || inFlight.getFirst().isDone()))
+               writeCheckpoint(inFlight.removeFirst().complete());
+
+            if (last)
+               break;
+            start = end;
+         }
+
+         while (inFlight.isEmpty() == false)
+            writeCheckpoint(inFlight.removeFirst().complete());
+
+         long took = Math.max(1, System.currentTimeMillis() - begin);
+         out.println(String.format("Migrated %d entries of %d rows in %.1f s (%.0f entries/s), %d undecodable entries skipped, %d column families",
+               entries, rows, took / 1000.0, entries * 1000.0 / took, skipped, created.size()));
+         if (checkpoint != null && checkpoint.delete() == false && checkpoint.exists())
+            out.println("Cannot delete checkpoint " + checkpoint);
+      }
+      finally
+      {
+         workers.shutdownNow();
+         reader.close();
+         for (ClientConnection connection : writers)
+            connection.close();
+      }
+   }
+
+   private List<KeySlice> readPage(ClientConnection reader, byte[] start) throws Exception
+   {
+      final ColumnParent cp = new ColumnParent(sourceColumnFamily);
+      SliceRange all = new SliceRange();
+      all.setStart(new byte[0]);
+      all.setFinish(new byte[0]);
+      all.setCount(Integer.MAX_VALUE);
+      final SlicePredicate predicate = new SlicePredicate();
+      predicate.setSlice_range(all);
+      final KeyRange range = new KeyRange();
+      range.setCount(pageSize);
+      range.setStart_key(start);
+      range.setEnd_key(new byte[0]);
+      return execute(reader, new ClientExecutor<List<KeySlice>>()
+      {
+         public List<KeySlice> execute(Cassandra.Client client) throws Throwable
+         {
+            return client.get_range_slices(cp, predicate, range, ConsistencyLevel.ONE);
+         }
+      });
+   }
+
+   private static void write(BlockingQueue<ClientConnection> writers, final Map<ByteBuffer, Map<String, List<Mutation>>> batch) throws Exception
+   {
+      ClientConnection connection = writers.take();
+      try
+      {
+         execute(connection, new ClientExecutor<Object>()
+         {
+            public Object execute(Cassandra.Client client) throws Throwable
+            {
+               client.batch_mutate(batch, ConsistencyLevel.ONE);
+               return null;
+            }
+         });
+      }
+      finally
+      {
+         writers.add(connection);
+      }
+   }
+
+   private static <T> T execute(ClientConnection connection, ClientExecutor<T> executor) throws Exception
+   {
+      try
+      {
+         return connection.execute(executor);
+      }
+      catch (Exception e)
+      {
+         throw e;
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException(t);
+      }
+   }
+
+   private synchronized void ensureColumnFamily(String target, String clustername)
+   {
+      if (created.add(clustername))
+         spi.createColumnFamily(target, clustername, profile);
+   }
+
+   private byte[] readCheckpoint() throws IOException
+   {
+      if (checkpoint == null || checkpoint.exists() == false)
+         return new byte[0];
+
+      BufferedReader reader = new BufferedReader(new FileReader(checkpoint));
+      try
+      {
+         String line = reader.readLine();
+         return (line != null) ? fromHex(line.trim()) : new byte[0];
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   private void writeCheckpoint(byte[] key) throws IOException
+   {
+      if (checkpoint == null || key.length == 0)
+         return;
+
+      File temp = new File(checkpoint.getPath() + ".tmp");
+      FileWriter writer = new FileWriter(temp);
+      try
+      {
+         writer.write(toHex(key));
+         writer.write('\n');
+      }
+      finally
+      {
+         writer.close();
+      }
+      if (temp.renameTo(checkpoint) == false)
+      {
+         // e.g. Windows doesn't replace existing files
+         checkpoint.delete();
+         if (temp.renameTo(checkpoint) == false)
+            throw new IOException("Cannot write checkpoint " + checkpoint);
+      }
+   }
+
+   private static String toHex(byte[] bytes)
+   {
+      StringBuilder builder = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes)
+      {
+         builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+         builder.append(Character.forDigit(b & 0xf, 16));
+      }
+      return builder.toString();
+   }
+
+   private static byte[] fromHex(String hex)
+   {
+      if (hex.length() % 2 != 0)
+         throw new IllegalArgumentException("Invalid checkpoint: " + hex);
+
+      byte[] bytes = new byte[hex.length() / 2];
+      for (int i = 0; i < bytes.length; i++)
+         bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+      return bytes;
+   }
+
+   public void setSourceColumnFamily(String sourceColumnFamily)
+   {
+      if (sourceColumnFamily == null)
+         throw new IllegalArgumentException("Null source column family");
+      this.sourceColumnFamily = sourceColumnFamily;
+   }
+
+   public void setTargetKeyspace(String targetKeyspace)
+   {
+      this.targetKeyspace = targetKeyspace;
+   }
+
+   public void setProfile(DiscoveryProfile profile)
+   {
+      this.profile = profile;
+   }
+
+   public void setThreads(int threads)
+   {
+      if (threads < 1)
+         throw new IllegalArgumentException("Threads must be positive: " + threads);
+      this.threads = threads;
+   }
+
+   public void setPageSize(int pageSize)
+   {
+      if (pageSize < 2)
+         throw new IllegalArgumentException("Page size must be at least 2: " + pageSize);
+      this.pageSize = pageSize;
+   }
+
+   /**
+    * Set the copy rate.
+    *
+    * @param rate max entries per second, 0 for no limit
+    */
+   public void setRate(double rate)
+   {
+      this.rate = rate;
+   }
+
+   public void setCheckpoint(File checkpoint)
+   {
+      this.checkpoint = checkpoint;
+   }
+
+   private static class Page
+   {
+      private final byte[] end;
+      private final Future<?> future;
+
+      private Page(byte[] end, Future<?> future)
+      {
+         this.end = end;
+         this.future = future;
+      }
+
+      boolean isDone()
+      {
+         return future == null || future.isDone();
+      }
+
+      byte[] complete() throws Exception
+      {
+         if (future != null)
+            future.get();
+         return end;
+      }
+   }
+}
@@ -0,0 +1,106 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.jboss.jgroups.cassandra.cli.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Latency histogram test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class LatencyHistogramTestCase
+{
+   @Test
+   public void testEmpty() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      Assert.assertEquals(0, histogram.getCount());
+      Assert.assertEquals(0, histogram.percentile(50));
+      Assert.assertEquals(0, histogram.percentile(99.9));
+      Assert.assertTrue(print(histogram).contains("ops=0 errors=0"));
+   }
+
+   @Test
+   public void testBuckets() throws Exception
+   {
+      // sub microsecond latencies count as 1 us, buckets are [2^i, 2^(i+1)) us
+      assertBucket(1, 2);
+      assertBucket(999, 2);
+      assertBucket(1999, 2);
+      assertBucket(2000, 4);
+      assertBucket(1000000, 1024);
+      // beyond the last bucket is clamped into it
+      assertBucket(Long.MAX_VALUE / 2, 1L << 40);
+   }
+
+   @Test
+   public void testPercentiles() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      for (int i = 0; i < 99; i++)
+         histogram.record(1000);
+      histogram.record(1000000);
+
+      Assert.assertEquals(100, histogram.getCount());
+      Assert.assertEquals(2, histogram.percentile(50));
+      Assert.assertEquals(2, histogram.percentile(99));
+      Assert.assertEquals(1024, histogram.percentile(99.9));
+      Assert.assertEquals(1024, histogram.percentile(100));
+   }
+
+   @Test
+   public void testErrors() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(1000);
+      histogram.error();
+      histogram.error();
+
+      // failed operations are reported apart, not as latencies
+      Assert.assertEquals(1, histogram.getCount());
+      Assert.assertTrue(print(histogram).contains("ops=1 errors=2"));
+   }
+
+   private static void assertBucket(long nanos, long bound)
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(nanos);
+      Assert.assertEquals(bound, histogram.percentile(50));
+   }
+
+   private static String print(LatencyHistogram histogram)
+   {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(baos);
+      histogram.print("read", 1, out);
+      out.flush();
+      return baos.toString();
+   }
+}
@@ -0,0 +1,331 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra;
+
+import static org.jgroups.util.Util.streamableToByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.utils.Bytes;
+import org.jboss.jgroups.cassandra.plugins.ClusterStatements;
+import org.jgroups.Address;
+import org.jgroups.Event;
+import org.jgroups.View;
+import org.jgroups.annotations.Experimental;
+import org.jgroups.annotations.Property;
+import org.jgroups.protocols.FILE_PING;
+import org.jgroups.protocols.PingData;
+import org.jgroups.util.Util;
+
+/**
+ * Cassandra discovery over the native (CQL) protocol.
+ * <p/>
+ * Same layout as the Thrift based ping, a table per cluster keyed by member address,
+ * but all operations are prepared statements sent asynchronously over a few
+ * multiplexed connections, instead of one blocking request per socket.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+@Experimental
+public class CASSANDRA_PING extends FILE_PING
+{
+   @Property(description = "Comma separated Cassandra contact points")
+   protected String host = "localhost";
+
+   @Property(description = "Cassandra native protocol port")
+   protected int port = 9042;
+
+   @Property(description = "Cassandra keyspace")
+   protected String keyspace = "jgroups";
+
+   @Property(name = "connections-per-host", description = "Number of connections per host, each one multiplexes concurrent requests")
+   protected int connectionsPerHost = 1;
+
+   @Property(name = "request-timeout", description = "Max time in milliseconds to wait for an operation")
+   protected long requestTimeout = 10000;
+
+   @Property(name = "fetch-size", description = "Number of entries fetched per page when reading a cluster")
+   protected int fetchSize = 1000;
+
+   private volatile Cluster cluster;
+   private volatile Session session;
+   private final ConcurrentMap<String, ClusterStatements> statements = new ConcurrentHashMap<String, ClusterStatements>();
+   private final ThreadLocal<Set<Address>> pendingRemovals = new ThreadLocal<Set<Address>>();
+   private volatile View lastView;
+
+   public CASSANDRA_PING()
+   {
+      setId((short) 1001); // id OK?
+   }
+
+   @Override
+   protected void createRootDir()
+   {
+      PoolingOptions pooling = new PoolingOptions();
+      // keep core <= max while resizing
+      pooling.setMaxConnectionsPerHost(HostDistance.LOCAL, Math.max(connectionsPerHost, pooling.getMaxConnectionsPerHost(HostDistance.LOCAL)));
+      pooling.setCoreConnectionsPerHost(HostDistance.LOCAL, connectionsPerHost);
+      pooling.setMaxConnectionsPerHost(HostDistance.LOCAL, connectionsPerHost);
+
+      Cluster temp = Cluster.builder()
+            .addContactPoints(host.split(","))
+            .withPort(port)
+            .withPoolingOptions(pooling)
+            .build();
+      try
+      {
+         session = temp.connect(ClusterStatements.quote(keyspace));
+         cluster = temp;
+      }
+      catch (RuntimeException e)
+      {
+         temp.close();
+         throw new IllegalArgumentException(e);
+      }
+   }
+
+   @Override
+   public void destroy()
+   {
+      try
+      {
+         statements.clear();
+         Cluster temp = cluster;
+         cluster = null;
+         session = null;
+         if (temp != null)
+            temp.close();
+      }
+      finally
+      {
+         super.destroy();
+      }
+   }
+
+   private Session getSession()
+   {
+      Session current = session;
+      if (current == null)
+         throw new IllegalStateException("Not connected to Cassandra");
+      return current;
+   }
+
+   /**
+    * Get the cluster's prepared statements, preparing them on first use.
+    *
+    * @param clustername the cluster name
+    * @return the statements
+    */
+   protected ClusterStatements getStatements(String clustername)
+   {
+      ClusterStatements cs = statements.get(clustername);
+      if (cs == null)
+      {
+         cs = ClusterStatements.prepare(getSession(), clustername);
+         ClusterStatements previous = statements.putIfAbsent(clustername, cs);
+         if (previous != null)
+            cs = previous;
+      }
+      return cs;
+   }
+
+   /**
+    * Forget the cluster's prepared statements, e.g. after its table was dropped.
+    *
+    * @param clustername the cluster name
+    */
+   protected void clearStatements(String clustername)
+   {
+      statements.remove(clustername);
+   }
+
+   /**
+    * Send the statement without blocking the connection.
+    *
+    * @param statement the statement
+    * @return the result future
+    */
+   protected ResultSetFuture executeAsync(BoundStatement statement)
+   {
+      return getSession().executeAsync(statement);
+   }
+
+   /**
+    * Wait for the result.
+    *
+    * @param future the result future
+    * @return the result
+    * @throws Exception for any error or timeout
+    */
+   protected ResultSet await(ResultSetFuture future) throws Exception
+   {
+      return future.getUninterruptibly(requestTimeout, TimeUnit.MILLISECONDS);
+   }
+
+   @Override
+   protected void writeToFile(PingData data, String clustername)
+   {
+      try
+      {
+         ByteBuffer id = ByteBuffer.wrap(streamableToByteBuffer(data.getAddress()));
+         ByteBuffer value = ByteBuffer.wrap(streamableToByteBuffer(data));
+         await(executeAsync(getStatements(clustername).getInsert().bind(id, value)));
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot write ping data.", t);
+      }
+   }
+
+   @Override
+   protected List<PingData> readAll(String clustername)
+   {
+      List<PingData> results = new ArrayList<PingData>();
+      try
+      {
+         BoundStatement select = getStatements(clustername).getSelect().bind();
+         select.setFetchSize(fetchSize);
+         ResultSet rs = await(executeAsync(select));
+         for (Row row : rs)
+         {
+            // fetch the next page while we decode this one
+            if (rs.getAvailableWithoutFetching() == fetchSize / 2 && rs.isFullyFetched() == false)
+               rs.fetchMoreResults();
+
+            ByteBuffer value = row.getBytes(ClusterStatements.DATA);
+            if (value == null)
+               continue;
+
+            try
+            {
+               results.add((PingData) Util.streamableFromByteBuffer(PingData.class, Bytes.getArray(value)));
+            }
+            catch (Exception e)
+            {
+               log.debug("Cannot read ping data.", e);
+            }
+         }
+      }
+      catch (Throwable t)
+      {
+         log.debug(t.getMessage());
+      }
+      return results;
+   }
+
+   @Override
+   public Object down(Event evt)
+   {
+      if (evt.getType() != Event.VIEW_CHANGE)
+         return super.down(evt);
+
+      View newView = (View) evt.getArg();
+      Set<Address> removals = new HashSet<Address>();
+      pendingRemovals.set(removals);
+      try
+      {
+         return super.down(evt);
+      }
+      finally
+      {
+         pendingRemovals.remove();
+         View previous = lastView;
+         lastView = newView;
+         List<Address> members = newView.getMembers();
+         if (previous != null && members.isEmpty() == false && members.get(0).equals(local_addr))
+         {
+            // the coordinator cleans up after members which left
+            for (Address addr : previous.getMembers())
+            {
+               if (newView.containsMember(addr) == false)
+                  removals.add(addr);
+            }
+         }
+         if (group_addr != null && removals.isEmpty() == false)
+            remove(group_addr, new ArrayList<Address>(removals));
+      }
+   }
+
+   @Override
+   protected void remove(String clustername, Address addr)
+   {
+      Set<Address> pending = pendingRemovals.get();
+      if (pending != null && clustername.equals(group_addr))
+      {
+         // we're handling a view change, all removals are sent at once
+         pending.add(addr);
+         return;
+      }
+
+      try
+      {
+         ByteBuffer id = ByteBuffer.wrap(streamableToByteBuffer(addr));
+         await(executeAsync(getStatements(clustername).getDelete().bind(id)));
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot remove ping data.", t);
+      }
+   }
+
+   /**
+    * Remove ping data of many members.
+    * <p/>
+    * All deletes are in flight at once, so this takes about one round trip.
+    *
+    * @param clustername the cluster name
+    * @param addrs the member addresses
+    */
+   protected void remove(String clustername, List<Address> addrs)
+   {
+      try
+      {
+         ClusterStatements cs = getStatements(clustername);
+         List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>(addrs.size());
+         for (Address addr : addrs)
+            futures.add(executeAsync(cs.getDelete().bind(ByteBuffer.wrap(streamableToByteBuffer(addr)))));
+         for (ResultSetFuture future : futures)
+            await(future);
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot remove ping data.", t);
+      }
+   }
+}
@@ -0,0 +1,170 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import static org.jboss.jgroups.cassandra.plugins.ClusterStatements.quote;
+
+import java.util.Map;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.AlreadyExistsException;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import org.jboss.jgroups.cassandra.spi.CassandraSPI;
+import org.jboss.jgroups.cassandra.spi.DiscoveryProfile;
+
+/**
+ * Base Cassandra SPI impl, over the native protocol.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class BaseCassandraSPI implements CassandraSPI
+{
+   private String host = "localhost";
+   private int port = 9042;
+   private String strategyClass = "SimpleStrategy";
+   private int replicationFactor = 1;
+
+   /**
+    * Execute schema statement on a short lived connection.
+    *
+    * @param cql the statement
+    * @return true if executed, false if the element already existed
+    */
+   protected boolean execute(String cql)
+   {
+      Cluster cluster = Cluster.builder().addContactPoints(host.split(",")).withPort(port).build();
+      try
+      {
+         Session session = cluster.connect();
+         session.execute(cql);
+         return true;
+      }
+      catch (AlreadyExistsException e)
+      {
+         return false;
+      }
+      finally
+      {
+         cluster.close();
+      }
+   }
+
+   public boolean createKeyspace(String keyspaceName)
+   {
+      return execute("CREATE KEYSPACE " + quote(keyspaceName) +
+            " WITH replication = {'class': '" + strategyClass + "', 'replication_factor': " + replicationFactor + "}");
+   }
+
+   public boolean createKeyspace(String keyspaceName, DiscoveryProfile profile)
+   {
+      if (profile == null)
+         return createKeyspace(keyspaceName);
+
+      String strategy = (profile.getReplicationStrategy() != null) ? profile.getReplicationStrategy() : strategyClass;
+      StringBuilder replication = new StringBuilder("{'class': '").append(strategy).append("'");
+      if (profile.getStrategyOptions().isEmpty())
+      {
+         replication.append(", 'replication_factor': ").append(profile.getReplicationFactor());
+      }
+      else
+      {
+         for (Map.Entry<String, String> option : profile.getStrategyOptions().entrySet())
+            replication.append(", '").append(option.getKey()).append("': '").append(option.getValue()).append("'");
+      }
+      replication.append("}");
+      return execute("CREATE KEYSPACE " + quote(keyspaceName) + " WITH replication = " + replication);
+   }
+
+   public void dropKeyspace(String keyspaceName)
+   {
+      execute("DROP KEYSPACE " + quote(keyspaceName));
+   }
+
+   public boolean createColumnFamily(String keyspaceName, String columnFamily)
+   {
+      return execute("CREATE TABLE " + quote(keyspaceName) + "." + quote(columnFamily) +
+            " (" + ClusterStatements.KEY + " blob PRIMARY KEY, " + ClusterStatements.DATA + " blob)");
+   }
+
+   public boolean createColumnFamily(String keyspaceName, String columnFamily, DiscoveryProfile profile)
+   {
+      if (profile == null)
+         return createColumnFamily(keyspaceName, columnFamily);
+
+      // the row cache size is node wide in the native protocol era, a table can only opt in
+      String caching = (profile.getRowCacheSize() > 0) ? "all" : "keys_only";
+      return execute("CREATE TABLE " + quote(keyspaceName) + "." + quote(columnFamily) +
+            " (" + ClusterStatements.KEY + " blob PRIMARY KEY, " + ClusterStatements.DATA + " blob)" +
+            " WITH caching = '" + caching + "'" +
+            " AND gc_grace_seconds = " + profile.getGcGraceSeconds() +
+            " AND read_repair_chance = " + profile.getReadRepairChance() +
+            " AND dclocal_read_repair_chance = " + profile.getReadRepairChance());
+   }
+
+   public void dropColumnFamily(String keyspaceName, String columnFamily)
+   {
+      execute("DROP TABLE " + quote(keyspaceName) + "." + quote(columnFamily));
+   }
+
+   public boolean isColumnFamilyEmpty(String keyspaceName, String columnFamily)
+   {
+      Cluster cluster = Cluster.builder().addContactPoints(host.split(",")).withPort(port).build();
+      try
+      {
+         Session session = cluster.connect();
+         // deleted rows are not returned, tombstones don't count
+         return session.execute("SELECT " + ClusterStatements.KEY + " FROM " + quote(keyspaceName) + "." + quote(columnFamily) + " LIMIT 1").one() == null;
+      }
+      catch (InvalidQueryException e)
+      {
+         // no such table
+         return true;
+      }
+      finally
+      {
+         cluster.close();
+      }
+   }
+
+   public void setHost(String host)
+   {
+      this.host = host;
+   }
+
+   public void setPort(int port)
+   {
+      this.port = port;
+   }
+
+   public void setStrategyClass(String strategyClass)
+   {
+      this.strategyClass = strategyClass;
+   }
+
+   public void setReplicationFactor(int replicationFactor)
+   {
+      this.replicationFactor = replicationFactor;
+   }
+}
@@ -0,0 +1,98 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+
+/**
+ * Prepared statements of a single cluster table.
+ * <p/>
+ * Each cluster is a table named after it, the row key is the member address
+ * and the data column holds the serialized ping data.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class ClusterStatements
+{
+   public static final String KEY = "key";
+   public static final String DATA = "data";
+
+   private final PreparedStatement insert;
+   private final PreparedStatement select;
+   private final PreparedStatement delete;
+
+   private ClusterStatements(PreparedStatement insert, PreparedStatement select, PreparedStatement delete)
+   {
+      this.insert = insert;
+      this.select = select;
+      this.delete = delete;
+   }
+
+   /**
+    * Prepare the statements of the cluster's table.
+    *
+    * @param session the session
+    * @param clustername the cluster name
+    * @return new statements
+    */
+   public static ClusterStatements prepare(Session session, String clustername)
+   {
+      String table = quote(clustername);
+      PreparedStatement insert = session.prepare("INSERT INTO " + table + " (" + KEY + ", " + DATA + ") VALUES (?, ?)");
+      PreparedStatement select = session.prepare("SELECT " + DATA + " FROM " + table);
+      PreparedStatement delete = session.prepare("DELETE FROM " + table + " WHERE " + KEY + " = ?");
+      insert.setConsistencyLevel(ConsistencyLevel.ONE);
+      select.setConsistencyLevel(ConsistencyLevel.ONE);
+      delete.setConsistencyLevel(ConsistencyLevel.ONE);
+      return new ClusterStatements(insert, select, delete);
+   }
+
+   /**
+    * Quote the identifier, so names keep their case.
+    *
+    * @param name the keyspace or table name
+    * @return quoted identifier
+    */
+   public static String quote(String name)
+   {
+      return "\"" + name.replace("\"", "\"\"") + "\"";
+   }
+
+   public PreparedStatement getInsert()
+   {
+      return insert;
+   }
+
+   public PreparedStatement getSelect()
+   {
+      return select;
+   }
+
+   public PreparedStatement getDelete()
+   {
+      return delete;
+   }
+}
@@ -27,7 +27,9 @@ import static org.jgroups.util.Util.streamableToByteBuffer;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.cassandra.thrift.Cassandra;
 import org.apache.cassandra.thrift.ColumnOrSuperColumn;
@@ -39,8 +41,10 @@ import org.apache.cassandra.thrift.KeySlice;
 import org.apache.cassandra.thrift.SlicePredicate;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
-import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.jboss.jgroups.cassandra.plugins.BatchReader;
+import org.jboss.jgroups.cassandra.plugins.TransportFactory;
 import org.jgroups.Address;
 import org.jgroups.annotations.Experimental;
 import org.jgroups.annotations.Property;
@@ -71,6 +75,9 @@ public class CASSANDRA_PING extends FILE_PING
 {
    public static final String UTF8 = "UTF8";
 
+   private static final int KEY_CACHE_SIZE = 1000;
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
    @Property(description = "Cassandra host")
    private String host = "localhost";
 
@@ -83,8 +90,45 @@ public class CASSANDRA_PING extends FILE_PING
    @Property(name = "column-family", description = "Cassandra column family")
    private String columnFamily = "clusters";
 
+   @Property(description = "Use framed transport, the server must be configured for it")
+   private boolean framed;
+
+   @Property(name = "buffer-size", description = "Size in bytes of the socket read and write buffers")
+   private int bufferSize = 8192;
+
+   @Property(name = "connect-timeout", description = "Max time in milliseconds to connect to Cassandra")
+   private int connectTimeout = 5000;
+
+   @Property(name = "read-timeout", description = "Max time in milliseconds to wait for a Cassandra response, 0 waits forever")
+   private int readTimeout = 10000;
+
+   @Property(name = "batch-reads", description = "Serve reads of all clusters in this JVM, requested within the batch window, by a single scan")
+   private boolean batchReads;
+
+   @Property(name = "batch-window", description = "Time in milliseconds reads are collected before a batched scan")
+   private long batchWindow = 10;
+
+   @Property(name = "batch-page-size", description = "Number of rows read per page of a batched scan")
+   private int batchPageSize = 1000;
+
+   @Property(name = "batch-timeout", description = "Max time in milliseconds a read waits for its batched scan")
+   private long batchTimeout = 30000;
+
+   private TransportFactory transportFactory;
    private TTransport tr;
    private Cassandra.Client client;
+   private final Object clientLock = new Object();
+   private BatchReader batchReader;
+
+   private final Map<Address, String> keys = new LinkedHashMap<Address, String>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(Map.Entry<Address, String> eldest)
+      {
+         return size() > KEY_CACHE_SIZE;
+      }
+   };
 
    public CASSANDRA_PING()
    {
@@ -96,10 +140,18 @@ public class CASSANDRA_PING extends FILE_PING
    {
       try
       {
-         tr = new TSocket(host, port);
-         TProtocol proto = new TBinaryProtocol(tr);
-         client = new Cassandra.Client(proto);
-         tr.open();
+         TransportFactory factory = new TransportFactory(host, port);
+         factory.setFramed(framed);
+         factory.setBufferSize(bufferSize);
+         factory.setConnectTimeout(connectTimeout);
+         factory.setReadTimeout(readTimeout);
+         transportFactory = factory;
+         synchronized (clientLock)
+         {
+            getClient();
+         }
+         if (batchReads)
+            batchReader = BatchReader.acquire(factory, keyspace, columnFamily, batchWindow, batchPageSize, batchTimeout);
       }
       catch (Throwable e)
       {
@@ -113,10 +165,15 @@ public class CASSANDRA_PING extends FILE_PING
    {
       try
       {
-         client = null;
-         TTransport temp = tr;
-         tr = null;
-         temp.close();
+         if (batchReader != null)
+         {
+            batchReader.release();
+            batchReader = null;
+         }
+         synchronized (clientLock)
+         {
+            reset();
+         }
       }
       finally
       {
@@ -124,18 +181,93 @@ public class CASSANDRA_PING extends FILE_PING
       }
    }
 
+   /**
+    * Get the client, connecting if needed.
+    * Must be called holding the client lock, the client is not thread safe.
+    *
+    * @return the client
+    * @throws TTransportException if we cannot connect
+    */
+   private Cassandra.Client getClient() throws TTransportException
+   {
+      if (client == null)
+      {
+         tr = transportFactory.open();
+         TProtocol proto = new TBinaryProtocol(tr);
+         client = new Cassandra.Client(proto);
+      }
+      return client;
+   }
+
+   /**
+    * Close the connection, e.g. after a timeout left it in an unknown state.
+    * Must be called holding the client lock.
+    */
+   private void reset()
+   {
+      client = null;
+      TTransport temp = tr;
+      tr = null;
+      if (temp != null)
+         temp.close();
+   }
+
+   /**
+    * Get the address' row key, the hex encoded serialized address.
+    *
+    * @param addr the address
+    * @return the row key
+    * @throws Exception for any error
+    */
+   protected String rowKey(Address addr) throws Exception
+   {
+      synchronized (keys)
+      {
+         String key = keys.get(addr);
+         if (key != null)
+            return key;
+      }
+
+      byte[] bytes = streamableToByteBuffer(addr);
+      char[] chars = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+         chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+      }
+      String key = new String(chars);
+      synchronized (keys)
+      {
+         keys.put(addr, key);
+      }
+      return key;
+   }
+
    @Override
    protected void writeToFile(PingData data, String clustername)
    {
       try
       {
          long timestamp = System.currentTimeMillis();
-         String id = new String(streamableToByteBuffer(data.getAddress()), UTF8);
+         String id = rowKey(data.getAddress());
 
          ColumnPath colPathName = new ColumnPath(columnFamily);
          colPathName.setColumn(clustername.getBytes(UTF8));
 
-         client.insert(keyspace, id, colPathName, streamableToByteBuffer(data), timestamp, ConsistencyLevel.ONE);
+         byte[] bytes = streamableToByteBuffer(data);
+         // the client is not thread safe
+         synchronized (clientLock)
+         {
+            try
+            {
+               getClient().insert(keyspace, id, colPathName, bytes, timestamp, ConsistencyLevel.ONE);
+            }
+            catch (TTransportException e)
+            {
+               reset();
+               throw e;
+            }
+         }
       }
       catch (Exception e)
       {
@@ -146,6 +278,9 @@ public class CASSANDRA_PING extends FILE_PING
    @Override
    protected List<PingData> readAll(String clustername)
    {
+      if (batchReader != null)
+         return readBatched(clustername);
+
       List<PingData> results = new ArrayList<PingData>();
       try
       {
@@ -155,7 +290,19 @@ public class CASSANDRA_PING extends FILE_PING
          KeyRange range = new KeyRange();
          range.setStart_key("");
          range.setEnd_key("");
-         List<KeySlice> slices = client.get_range_slices(keyspace, cp, predicate, range, ConsistencyLevel.ONE);
+         List<KeySlice> slices;
+         synchronized (clientLock)
+         {
+            try
+            {
+               slices = getClient().get_range_slices(keyspace, cp, predicate, range, ConsistencyLevel.ONE);
+            }
+            catch (TTransportException e)
+            {
+               reset();
+               throw e;
+            }
+         }
 
          for (KeySlice ks : slices)
          {
@@ -177,6 +324,21 @@ public class CASSANDRA_PING extends FILE_PING
       return results;
    }
 
+   private List<PingData> readBatched(String clustername)
+   {
+      List<PingData> results = new ArrayList<PingData>();
+      try
+      {
+         for (byte[] bytes : batchReader.read(clustername))
+            results.add((PingData) Util.streamableFromByteBuffer(PingData.class, bytes));
+      }
+      catch (Exception e)
+      {
+         log.warn(e.getMessage());
+      }
+      return results;
+   }
+
    @Override
    protected void remove(String clustername, Address addr)
    {
@@ -185,7 +347,19 @@ public class CASSANDRA_PING extends FILE_PING
          ColumnPath path = new ColumnPath(columnFamily);
          path.setColumn(clustername.getBytes(UTF8));
          long timestamp = System.currentTimeMillis();
-         client.remove(keyspace, new String(streamableToByteBuffer(addr), UTF8), path, timestamp, ConsistencyLevel.ONE);
+         String id = rowKey(addr);
+         synchronized (clientLock)
+         {
+            try
+            {
+               getClient().remove(keyspace, id, path, timestamp, ConsistencyLevel.ONE);
+            }
+            catch (TTransportException e)
+            {
+               reset();
+               throw e;
+            }
+         }
       }
       catch (Exception e)
       {
@@ -0,0 +1,330 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Batches discovery reads of all clusters in this JVM sharing the same column family.
+ * <p/>
+ * Every cluster is a column on the member rows, so reads requested within the batch window
+ * are served by a single paged scan, whose predicate names all pending clusters;
+ * the columns are then handed back to each cluster's readers.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class BatchReader
+{
+   private static final String UTF8 = "UTF8";
+   private static final Map<String, BatchReader> readers = new HashMap<String, BatchReader>();
+
+   private final String id;
+   private final TransportFactory transportFactory;
+   private final String keyspace;
+   private final String columnFamily;
+   private final long window;
+   private final int pageSize;
+   private final long timeout;
+   private int references;
+
+   private TTransport tr;
+   private Cassandra.Client client;
+
+   private final Object batchLock = new Object();
+   private Map<String, Request> pending = new HashMap<String, Request>();
+   private boolean scheduled;
+
+   protected BatchReader(TransportFactory transportFactory, String keyspace, String columnFamily, long window, int pageSize, long timeout)
+   {
+      if (pageSize < 2)
+         throw new IllegalArgumentException("Page size must be at least 2: " + pageSize);
+      if (timeout <= 0)
+         throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+
+      this.id = createId(transportFactory, keyspace, columnFamily);
+      this.transportFactory = transportFactory;
+      this.keyspace = keyspace;
+      this.columnFamily = columnFamily;
+      this.window = window;
+      this.pageSize = pageSize;
+      this.timeout = timeout;
+   }
+
+   private static String createId(TransportFactory transportFactory, String keyspace, String columnFamily)
+   {
+      return transportFactory.getHost() + ":" + transportFactory.getPort() + "/" + keyspace + "/" + columnFamily;
+   }
+
+   /**
+    * Get the reader shared by all pings using the same column family.
+    * <p/>
+    * The first ping's transport settings, window, page size and timeout are used.
+    *
+    * @param transportFactory the transport factory
+    * @param keyspace the keyspace
+    * @param columnFamily the column family
+    * @param window the batch window in milliseconds
+    * @param pageSize the number of rows per page
+    * @param timeout max time in milliseconds a read waits for its batch
+    * @return the reader, to be released when no longer used
+    */
+   public static BatchReader acquire(TransportFactory transportFactory, String keyspace, String columnFamily, long window, int pageSize, long timeout)
+   {
+      String id = createId(transportFactory, keyspace, columnFamily);
+      synchronized (readers)
+      {
+         BatchReader reader = readers.get(id);
+         if (reader == null)
+         {
+            reader = new BatchReader(transportFactory, keyspace, columnFamily, window, pageSize, timeout);
+            readers.put(id, reader);
+         }
+         reader.references++;
+         return reader;
+      }
+   }
+
+   /**
+    * Release the reader, the last release closes its connection.
+    */
+   public void release()
+   {
+      synchronized (readers)
+      {
+         if (--references > 0)
+            return;
+         readers.remove(id);
+      }
+      synchronized (this)
+      {
+         close();
+      }
+   }
+
+   /**
+    * Read the cluster's entries, together with any other cluster read at the same time.
+    *
+    * @param clustername the cluster name
+    * @return raw entries
+    * @throws Exception for any error
+    */
+   public List<byte[]> read(String clustername) throws Exception
+   {
+      Request request;
+      boolean leader;
+      synchronized (batchLock)
+      {
+         request = pending.get(clustername);
+         if (request == null)
+         {
+            request = new Request();
+            pending.put(clustername, request);
+         }
+         leader = (scheduled == false);
+         scheduled = true;
+      }
+
+      if (leader)
+      {
+         try
+         {
+            if (window > 0)
+               Thread.sleep(window);
+         }
+         catch (InterruptedException e)
+         {
+            // the batch is still served, other readers wait for it
+            Thread.currentThread().interrupt();
+         }
+         finally
+         {
+            Map<String, Request> batch;
+            synchronized (batchLock)
+            {
+               batch = pending;
+               pending = new HashMap<String, Request>();
+               scheduled = false;
+            }
+            complete(batch);
+         }
+      }
+      return request.get(timeout);
+   }
+
+   /**
+    * Scan and hand the results to the batch's requests, whatever happens.
+    *
+    * @param batch the batch
+    */
+   private void complete(Map<String, Request> batch)
+   {
+      Map<String, List<byte[]>> results = null;
+      Throwable error = null;
+      try
+      {
+         results = scan(batch.keySet());
+      }
+      catch (Throwable t)
+      {
+         error = t;
+         synchronized (this)
+         {
+            close();
+         }
+      }
+      finally
+      {
+         for (Map.Entry<String, Request> entry : batch.entrySet())
+         {
+            List<byte[]> entries = (results != null) ? results.get(entry.getKey()) : null;
+            if (entries == null && error == null)
+               entries = new ArrayList<byte[]>();
+            entry.getValue().done(entries, error);
+         }
+      }
+      if (error instanceof Error)
+         throw (Error) error;
+   }
+
+   /**
+    * Read the entries of all given clusters with a single paged scan.
+    *
+    * @param clusternames the cluster names
+    * @return entries per cluster name
+    * @throws Exception for any error
+    */
+   protected Map<String, List<byte[]>> scan(Collection<String> clusternames) throws Exception
+   {
+      Map<String, List<byte[]>> results = new HashMap<String, List<byte[]>>();
+      List<byte[]> names = new ArrayList<byte[]>();
+      for (String clustername : clusternames)
+      {
+         names.add(clustername.getBytes(UTF8));
+         results.put(clustername, new ArrayList<byte[]>());
+      }
+
+      ColumnParent cp = new ColumnParent(columnFamily);
+      SlicePredicate predicate = new SlicePredicate();
+      predicate.setColumn_names(names);
+      String start = "";
+      while (true)
+      {
+         KeyRange range = new KeyRange();
+         range.setStart_key(start);
+         range.setEnd_key("");
+         range.setCount(pageSize);
+         List<KeySlice> slices;
+         synchronized (this)
+         {
+            slices = getClient().get_range_slices(keyspace, cp, predicate, range, ConsistencyLevel.ONE);
+         }
+
+         for (KeySlice ks : slices)
+         {
+            // start key is inclusive, it was read with the previous page
+            if (start.length() > 0 && start.equals(ks.getKey()))
+               continue;
+
+            for (ColumnOrSuperColumn cosc : ks.getColumns())
+            {
+               Column column = cosc.column;
+               List<byte[]> entries = results.get(new String(column.getName(), UTF8));
+               if (entries != null)
+                  entries.add(column.getValue());
+            }
+         }
+
+         if (slices.size() < pageSize)
+            break;
+         start = slices.get(slices.size() - 1).getKey();
+      }
+
+      return results;
+   }
+
+   private Cassandra.Client getClient() throws Exception
+   {
+      if (client == null)
+      {
+         TTransport temp = transportFactory.open();
+         tr = temp;
+         client = new Cassandra.Client(new TBinaryProtocol(temp));
+      }
+      return client;
+   }
+
+   private void close()
+   {
+      client = null;
+      TTransport temp = tr;
+      tr = null;
+      if (temp != null)
+         temp.close();
+   }
+
+   private static class Request
+   {
+      private final CountDownLatch latch = new CountDownLatch(1);
+      private volatile List<byte[]> entries;
+      private volatile Throwable error;
+
+      void done(List<byte[]> entries, Throwable error)
+      {
+         this.entries = entries;
+         this.error = error;
+         latch.countDown();
+      }
+
+      List<byte[]> get(long timeout) throws Exception
+      {
+         // a completed read is returned even to an interrupted reader, e.g. a leader interrupted in its window
+         if (latch.getCount() > 0 && latch.await(timeout, TimeUnit.MILLISECONDS) == false)
+            throw new TimeoutException("Batched read not done within " + timeout + " ms");
+         if (error instanceof Exception)
+            throw (Exception) error;
+         if (error != null)
+            throw new ExecutionException(error);
+         return entries;
+      }
+   }
+}
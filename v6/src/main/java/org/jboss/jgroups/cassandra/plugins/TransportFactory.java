@@ -0,0 +1,151 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Opens Thrift transports to a Cassandra node.
+ * <p/>
+ * The socket streams are buffered, so a request is written with one syscall
+ * instead of one per field; framing additionally sends it as a single frame,
+ * which the server must be configured for.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TransportFactory
+{
+   private final String host;
+   private final int port;
+   private boolean framed;
+   private int bufferSize = 8192;
+   private int connectTimeout = 5000;
+   private int readTimeout;
+
+   public TransportFactory(String host, int port)
+   {
+      if (host == null)
+         throw new IllegalArgumentException("Null host");
+      this.host = host;
+      this.port = port;
+   }
+
+   /**
+    * Open new transport.
+    *
+    * @return the open transport
+    * @throws TTransportException for any error
+    */
+   public TTransport open() throws TTransportException
+   {
+      final Socket socket = new Socket();
+      try
+      {
+         socket.setTcpNoDelay(true);
+         socket.setSoTimeout(readTimeout);
+         socket.connect(new InetSocketAddress(host, port), connectTimeout);
+         TTransport transport = new TIOStreamTransport(
+               new BufferedInputStream(socket.getInputStream(), bufferSize),
+               new BufferedOutputStream(socket.getOutputStream(), bufferSize))
+         {
+            @Override
+            public void close()
+            {
+               super.close();
+               try
+               {
+                  socket.close();
+               }
+               catch (IOException ignored)
+               {
+               }
+            }
+         };
+         return framed ? new TFramedTransport(transport) : transport;
+      }
+      catch (IOException e)
+      {
+         try
+         {
+            socket.close();
+         }
+         catch (IOException ignored)
+         {
+         }
+         throw new TTransportException(e);
+      }
+   }
+
+   public String getHost()
+   {
+      return host;
+   }
+
+   public int getPort()
+   {
+      return port;
+   }
+
+   public void setFramed(boolean framed)
+   {
+      this.framed = framed;
+   }
+
+   public void setBufferSize(int bufferSize)
+   {
+      if (bufferSize < 1)
+         throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+      this.bufferSize = bufferSize;
+   }
+
+   public void setConnectTimeout(int connectTimeout)
+   {
+      this.connectTimeout = connectTimeout;
+   }
+
+   /**
+    * Set socket read timeout.
+    *
+    * @param readTimeout the timeout in milliseconds, 0 waits forever
+    */
+   public void setReadTimeout(int readTimeout)
+   {
+      this.readTimeout = readTimeout;
+   }
+
+   @Override
+   public String toString()
+   {
+      return host + ":" + port + (framed ? "/framed" : "");
+   }
+}
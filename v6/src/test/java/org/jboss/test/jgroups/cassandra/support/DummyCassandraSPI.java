@@ -23,6 +23,7 @@
 package org.jboss.test.jgroups.cassandra.support;
 
 import org.jboss.jgroups.cassandra.spi.CassandraSPI;
+import org.jboss.jgroups.cassandra.spi.DiscoveryProfile;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
@@ -34,6 +35,11 @@ public class DummyCassandraSPI implements CassandraSPI
       return false;
    }
 
+   public boolean createKeyspace(String keyspaceName, DiscoveryProfile profile)
+   {
+      return false;
+   }
+
    public void dropKeyspace(String keyspaceName)
    {
    }
@@ -43,7 +49,17 @@ public class DummyCassandraSPI implements CassandraSPI
       return false;
    }
 
+   public boolean createColumnFamily(String keyspaceName, String columnFamily, DiscoveryProfile profile)
+   {
+      return false;
+   }
+
    public void dropColumnFamily(String keyspaceName, String columnFamily)
    {
    }
+
+   public boolean isColumnFamilyEmpty(String keyspaceName, String columnFamily)
+   {
+      return true;
+   }
 }
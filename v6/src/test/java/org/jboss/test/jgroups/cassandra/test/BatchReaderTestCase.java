@@ -0,0 +1,218 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.jgroups.cassandra.plugins.BatchReader;
+import org.jboss.jgroups.cassandra.plugins.TransportFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Batch reader test case, with a scan that never touches Cassandra.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class BatchReaderTestCase
+{
+   @Test
+   public void testBatched() throws Exception
+   {
+      TestReader reader = new TestReader(200, 1000);
+      Read a1 = new Read(reader, "A");
+      Read b = new Read(reader, "B");
+      Read a2 = new Read(reader, "A");
+      a1.join(5000);
+      b.join(5000);
+      a2.join(5000);
+
+      // one scan for all reads within the window
+      Assert.assertEquals(1, reader.scans.size());
+      Assert.assertEquals(new HashSet<String>(Arrays.asList("A", "B")), reader.scans.get(0));
+      assertEntries("A", a1);
+      assertEntries("A", a2);
+      assertEntries("B", b);
+   }
+
+   @Test
+   public void testSeparateWindows() throws Exception
+   {
+      TestReader reader = new TestReader(0, 1000);
+      Assert.assertEquals("A", new String(reader.read("A").get(0)));
+      Assert.assertEquals("B", new String(reader.read("B").get(0)));
+      Assert.assertEquals(2, reader.scans.size());
+   }
+
+   @Test
+   public void testMissingCluster() throws Exception
+   {
+      TestReader reader = new TestReader(0, 1000);
+      reader.missing = "A";
+      Assert.assertTrue(reader.read("A").isEmpty());
+   }
+
+   @Test
+   public void testScanFailure() throws Exception
+   {
+      TestReader reader = new TestReader(200, 1000);
+      reader.failure = new IllegalStateException("Expected");
+      Read a = new Read(reader, "A");
+      Read b = new Read(reader, "B");
+      a.join(5000);
+      b.join(5000);
+
+      // every reader of the batch gets the error
+      Assert.assertSame(reader.failure, a.error);
+      Assert.assertSame(reader.failure, b.error);
+
+      reader.failure = null;
+      Assert.assertEquals(1, reader.read("A").size());
+   }
+
+   @Test
+   public void testLeaderInterrupted() throws Exception
+   {
+      TestReader reader = new TestReader(5000, 1000);
+      Read leader = new Read(reader, "A");
+      Thread.sleep(100);
+      Read other = new Read(reader, "B");
+      Thread.sleep(100);
+
+      // the batch is still scanned and served to everybody
+      leader.interrupt();
+      leader.join(5000);
+      other.join(5000);
+      Assert.assertFalse(other.isAlive());
+      assertEntries("A", leader);
+      assertEntries("B", other);
+   }
+
+   @Test
+   public void testTimeout() throws Exception
+   {
+      TestReader reader = new TestReader(100, 200);
+      reader.stall = new CountDownLatch(1);
+      Read leader = new Read(reader, "A");
+      Thread.sleep(50);
+      Read other = new Read(reader, "B");
+      other.join(5000);
+
+      // the stalled scan doesn't keep other readers waiting beyond the timeout
+      Assert.assertTrue(other.error instanceof TimeoutException);
+      reader.stall.countDown();
+      leader.join(5000);
+      assertEntries("A", leader);
+   }
+
+   @Test
+   public void testInvalid() throws Exception
+   {
+      try
+      {
+         new TestReader(0, 0);
+         Assert.fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException expected)
+      {
+      }
+   }
+
+   private static void assertEntries(String clustername, Read read)
+   {
+      Assert.assertNull(read.error);
+      Assert.assertNotNull(read.entries);
+      Assert.assertEquals(1, read.entries.size());
+      Assert.assertEquals(clustername, new String(read.entries.get(0)));
+   }
+
+   private static class TestReader extends BatchReader
+   {
+      private final List<Set<String>> scans = Collections.synchronizedList(new ArrayList<Set<String>>());
+      private volatile Exception failure;
+      private volatile String missing;
+      private volatile CountDownLatch stall;
+
+      private TestReader(long window, long timeout)
+      {
+         super(new TransportFactory("localhost", 9160), "Keyspace1", "jgroups", window, 100, timeout);
+      }
+
+      @Override
+      protected Map<String, List<byte[]>> scan(Collection<String> clusternames) throws Exception
+      {
+         scans.add(new HashSet<String>(clusternames));
+         if (stall != null)
+            stall.await();
+         if (failure != null)
+            throw failure;
+
+         // every cluster has a single entry, its name
+         Map<String, List<byte[]>> results = new HashMap<String, List<byte[]>>();
+         for (String clustername : clusternames)
+         {
+            if (clustername.equals(missing) == false)
+               results.put(clustername, Collections.singletonList(clustername.getBytes()));
+         }
+         return results;
+      }
+   }
+
+   private static class Read extends Thread
+   {
+      private final BatchReader reader;
+      private final String clustername;
+      private volatile List<byte[]> entries;
+      private volatile Exception error;
+
+      private Read(BatchReader reader, String clustername)
+      {
+         this.reader = reader;
+         this.clustername = clustername;
+         start();
+      }
+
+      public void run()
+      {
+         try
+         {
+            entries = reader.read(clustername);
+         }
+         catch (Exception e)
+         {
+            error = e;
+         }
+      }
+   }
+}
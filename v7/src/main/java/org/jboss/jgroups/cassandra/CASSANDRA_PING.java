@@ -25,10 +25,29 @@ package org.jboss.jgroups.cassandra;
 
 import static org.jgroups.util.Util.streamableToByteBuffer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cassandra.thrift.Cassandra;
 import org.apache.cassandra.thrift.Column;
@@ -36,19 +55,35 @@ import org.apache.cassandra.thrift.ColumnOrSuperColumn;
 import org.apache.cassandra.thrift.ColumnParent;
 import org.apache.cassandra.thrift.ColumnPath;
 import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
 import org.apache.cassandra.thrift.KeyRange;
 import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.NotFoundException;
 import org.apache.cassandra.thrift.SlicePredicate;
-import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.protocol.TProtocol;
-import org.apache.thrift.transport.TFramedTransport;
-import org.apache.thrift.transport.TSocket;
-import org.apache.thrift.transport.TTransport;
+import org.apache.cassandra.thrift.SliceRange;
+import org.jboss.jgroups.cassandra.plugins.CassandraBackend;
+import org.jboss.jgroups.cassandra.plugins.ClientConnection;
+import org.jboss.jgroups.cassandra.plugins.ClientExecutor;
+import org.jboss.jgroups.cassandra.plugins.DaemonThreadFactory;
+import org.jboss.jgroups.cassandra.plugins.DecodeCache;
+import org.jboss.jgroups.cassandra.plugins.HostCache;
+import org.jboss.jgroups.cassandra.plugins.LeaseSchedule;
+import org.jboss.jgroups.cassandra.plugins.MembershipSnapshot;
+import org.jboss.jgroups.cassandra.plugins.OpTrace;
+import org.jboss.jgroups.cassandra.plugins.PriorityLimiter;
+import org.jboss.jgroups.cassandra.plugins.RateLimiter;
+import org.jboss.jgroups.cassandra.plugins.SlowOpLog;
+import org.jboss.jgroups.cassandra.plugins.WriteBehindQueue;
 import org.jgroups.Address;
+import org.jgroups.Event;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.View;
 import org.jgroups.annotations.Experimental;
 import org.jgroups.annotations.Property;
 import org.jgroups.protocols.FILE_PING;
 import org.jgroups.protocols.PingData;
+import org.jgroups.util.UUID;
 import org.jgroups.util.Util;
 
 /**
@@ -74,12 +109,17 @@ public class CASSANDRA_PING extends FILE_PING
 {
    public static final String UTF8 = "UTF8";
    public static final byte[] DATA;
+   /**
+    * Reserved row key of the coordinator's view snapshot.
+    */
+   public static final byte[] VIEW_KEY;
 
    static
    {
       try
       {
          DATA = "data".getBytes(UTF8);
+         VIEW_KEY = "__view__".getBytes(UTF8);
       }
       catch (Exception e)
       {
@@ -96,8 +136,144 @@ public class CASSANDRA_PING extends FILE_PING
    @Property(description = "Cassandra keyspace")
    protected String keyspace = "jgroups";
 
-   private TTransport tr;
-   private Cassandra.Client client;
+   @Property(name = "snapshot-dir", description = "Directory where the last known membership of each cluster is persisted, none by default")
+   protected String snapshotDir;
+
+   @Property(name = "socket-timeout", description = "Socket read timeout in milliseconds, 0 means none")
+   protected int socketTimeout = ClientConnection.DEFAULT_TIMEOUT;
+
+   @Property(name = "hedge-hosts", description = "Comma separated host[:port] list to which slow reads are hedged, none by default")
+   protected String hedgeHosts;
+
+   @Property(name = "hedge-percentile", description = "Percentile of recent read latencies after which a read is hedged")
+   protected double hedgePercentile = 95;
+
+   @Property(name = "hedge-budget", description = "Max ratio of hedged reads to all reads, between 0 and 1")
+   protected double hedgeBudget = 0.1;
+
+   @Property(name = "hedge-min-delay", description = "Min time in milliseconds before a read is hedged")
+   protected long hedgeMinDelay = 5;
+
+   @Property(name = "token-aware", description = "Send keyed operations directly to a replica of the key, connecting to the listen address reported by the ring")
+   protected boolean tokenAware;
+
+   @Property(name = "ring-refresh-interval", description = "Interval in milliseconds at which the token ring view is refreshed")
+   protected long ringRefreshInterval = 60000;
+
+   @Property(name = "sweep-interval", description = "Interval in milliseconds at which the coordinator sweeps stale entries, 0 disables it")
+   protected long sweepInterval;
+
+   @Property(name = "sweep-grace-period", description = "Min age in milliseconds of an entry before it can be swept")
+   protected long sweepGracePeriod = 300000;
+
+   @Property(name = "sweep-page-size", description = "Number of entries read per sweep page")
+   protected int sweepPageSize = 100;
+
+   @Property(name = "sweep-rate", description = "Max sweep operations per second")
+   protected double sweepRate = 50;
+
+   @Property(name = "lease-refresh-interval", description = "Base interval in milliseconds at which our own entry is rewritten, 0 disables it")
+   protected long leaseRefreshInterval;
+
+   @Property(name = "lease-max-interval", description = "Max interval in milliseconds between lease refreshes while membership is stable")
+   protected long leaseMaxInterval = 300000;
+
+   @Property(name = "lease-stretch-factor", description = "Factor by which the lease refresh interval grows while membership is stable")
+   protected double leaseStretchFactor = 1.5;
+
+   @Property(name = "lease-jitter", description = "Max relative random deviation of a lease refresh delay, between 0 and 1")
+   protected double leaseJitter = 0.25;
+
+   @Property(name = "shared-backend", description = "Share connections, reads and writes with all channels of this JVM using the same settings")
+   protected boolean sharedBackend;
+
+   @Property(name = "slow-op-threshold", description = "Operations slower than this many milliseconds are logged with a timing breakdown, 0 disables it")
+   protected long slowOpThreshold;
+
+   @Property(name = "slow-op-log-interval", description = "Min interval in milliseconds between two slow operation log entries")
+   protected long slowOpLogInterval = 10000;
+
+   @Property(name = "streaming-read", description = "Read a cluster page by page and stop once enough members or the coordinator were found")
+   protected boolean streamingRead;
+
+   @Property(name = "read-page-size", description = "Number of entries read per page in streaming read mode")
+   protected int readPageSize = 20;
+
+   @Property(name = "view-snapshot", description = "Coordinator publishes the whole membership in a single entry, which is read before scanning all entries")
+   protected boolean viewSnapshot;
+
+   @Property(name = "view-snapshot-max-age", description = "Max age in milliseconds of a usable view snapshot, 0 means no limit; the coordinator rewrites it every half of this")
+   protected long viewSnapshotMaxAge = 300000;
+
+   @Property(description = "Number of rows each cluster's entries are hashed into, 0 keeps one row per member; all members must use the same value")
+   protected int buckets;
+
+   @Property(name = "write-behind", description = "Write and remove entries from a background thread, so JGroups threads never wait for Cassandra")
+   protected boolean writeBehind;
+
+   @Property(name = "write-behind-capacity", description = "Max number of pending write-behind operations, newer ones are dropped when full")
+   protected int writeBehindCapacity = 1000;
+
+   @Property(name = "write-behind-flush-timeout", description = "Max time in milliseconds to flush pending write-behind operations on destroy")
+   protected long writeBehindFlushTimeout = 5000;
+
+   @Property(name = "global-rate", description = "Max Cassandra ops per second of all pings in this JVM, reads first, then writes, then removes; 0 disables it")
+   protected double globalRate;
+
+   @Property(name = "global-burst", description = "Max ops above the global rate after an idle period")
+   protected double globalBurst = 10;
+
+   @Property(name = "decode-cache-size", description = "Max number of decoded entries reused while their value is unchanged, 0 disables it")
+   protected int decodeCacheSize = 1000;
+
+   @Property(name = "host-cache-dir", description = "Directory of the memory mapped membership cache shared by all JVMs of this host, none by default")
+   protected String hostCacheDir;
+
+   @Property(name = "host-cache-max-age", description = "Max age in milliseconds of host cached entries, older ones are read from Cassandra")
+   protected long hostCacheMaxAge = 5000;
+
+   @Property(name = "host-cache-refresh-interval", description = "Interval in milliseconds at which the lease holder republishes the host cache, 0 disables it; keep it below host-cache-max-age")
+   protected long hostCacheRefreshInterval = 2000;
+
+   @Property(name = "host-cache-size", description = "Size in bytes of a cluster's host cache file; all JVMs of a host must use the same value")
+   protected int hostCacheSize = 1024 * 1024;
+
+   @Property(name = "background-connect", description = "Connect to Cassandra in the background, so startup doesn't wait for it; operations do")
+   protected boolean backgroundConnect;
+
+   @Property(name = "connect-wait-timeout", description = "Max time in milliseconds an operation waits for the background connect")
+   protected long connectWaitTimeout = 10000;
+
+   @Property(description = "Read the cluster's entries on connect, before discovery asks for them")
+   protected boolean prefetch;
+
+   @Property(name = "prefetch-ttl", description = "Max age in milliseconds of a prefetched read served to the first discovery")
+   protected long prefetchTtl = 2000;
+
+   private volatile CassandraBackend backend;
+   private PriorityLimiter priorityLimiter;
+   private volatile WriteBehindQueue writeBehindQueue;
+   private DecodeCache decodeCache;
+   private byte[][] bucketKeys;
+   private SlowOpLog slowOpLog;
+   private ScheduledExecutorService sweeper;
+   private ScheduledExecutorService hostCacheRefresher;
+   private ScheduledExecutorService viewSnapshotRefresher;
+   private final Object leaseLock = new Object();
+   private final Object connectLock = new Object();
+   private volatile CountDownLatch connecting;
+   private volatile Exception connectFailure;
+   private final AtomicReference<Prefetch> prefetched = new AtomicReference<Prefetch>();
+   private LeaseSchedule leaseSchedule;
+   private ScheduledExecutorService leaseExecutor;
+   private Future<?> leaseRefresher;
+   private long leaseDue;
+
+   private volatile View lastView;
+   private final ThreadLocal<Set<Address>> pendingRemovals = new ThreadLocal<Set<Address>>();
+
+   private final ConcurrentMap<String, MembershipSnapshot> snapshots = new ConcurrentHashMap<String, MembershipSnapshot>();
+   private final ConcurrentMap<String, HostCache> hostCaches = new ConcurrentHashMap<String, HostCache>();
 
    public CASSANDRA_PING()
    {
@@ -107,30 +283,247 @@ public class CASSANDRA_PING extends FILE_PING
    @Override
    protected void createRootDir()
    {
+      if (slowOpThreshold > 0)
+         slowOpLog = new SlowOpLog(log, slowOpThreshold, slowOpLogInterval);
+
+      if (buckets < 0)
+         throw new IllegalArgumentException("Buckets must not be negative: " + buckets);
+      if (buckets > 0)
+      {
+         try
+         {
+            bucketKeys = new byte[buckets][];
+            for (int i = 0; i < buckets; i++)
+               bucketKeys[i] = ("bucket-" + i).getBytes(UTF8);
+         }
+         catch (Exception e)
+         {
+            throw new IllegalArgumentException(e);
+         }
+      }
+
+      if (backgroundConnect)
+      {
+         connectInBackground();
+      }
+      else
+      {
+         try
+         {
+            backend = connect();
+         }
+         catch (Exception e)
+         {
+            throw new IllegalArgumentException(e);
+         }
+      }
+
+      if (globalRate > 0)
+         priorityLimiter = PriorityLimiter.getInstance(globalRate, globalBurst);
+      if (decodeCacheSize > 0)
+         decodeCache = new DecodeCache(decodeCacheSize);
+      if (writeBehind)
+         writeBehindQueue = new WriteBehindQueue("CASSANDRA_PING write-behind", writeBehindCapacity, log);
+   }
+
+   /**
+    * Open our backend.
+    *
+    * @return the open backend
+    * @throws Exception for any error
+    */
+   private CassandraBackend connect() throws Exception
+   {
+      CassandraBackend candidate = new CassandraBackend(host, port, keyspace);
+      candidate.setHedgeHosts(hedgeHosts);
+      candidate.setHedgePercentile(hedgePercentile);
+      candidate.setHedgeBudget(hedgeBudget);
+      candidate.setHedgeMinDelay(hedgeMinDelay);
+      candidate.setTokenAware(tokenAware);
+      candidate.setRingRefreshInterval(ringRefreshInterval);
+      candidate.setSocketTimeout(socketTimeout);
       try
       {
-         tr = new TSocket(host, port);  //new default in 0.7 is framed transport
-         TFramedTransport tf = new TFramedTransport(tr);
-         TProtocol proto = new TBinaryProtocol(tf);
-         client = new Cassandra.Client(proto);
-         tf.open();
-         client.set_keyspace(keyspace);
+         if (sharedBackend)
+            return CassandraBackend.acquire(candidate);
+
+         candidate.open();
+         return candidate;
       }
       catch (Exception e)
       {
-         throw new IllegalArgumentException(e);
+         candidate.close();
+         throw e;
       }
    }
 
+   /**
+    * Start connecting, operations wait for it in {@link #getBackend()}.
+    */
+   private void connectInBackground()
+   {
+      final CountDownLatch latch = new CountDownLatch(1);
+      synchronized (connectLock)
+      {
+         connecting = latch;
+         connectFailure = null;
+      }
+      new DaemonThreadFactory("CASSANDRA_PING connect").newThread(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               CassandraBackend opened = connect();
+               synchronized (connectLock)
+               {
+                  if (connecting == latch)
+                     backend = opened;
+                  else
+                     opened.release(); // destroyed meanwhile
+               }
+            }
+            catch (Exception e)
+            {
+               connectFailure = e;
+            }
+            finally
+            {
+               latch.countDown();
+            }
+         }
+      }).start();
+   }
+
+   @Override
+   public void start() throws Exception
+   {
+      super.start();
+      if (sweepInterval > 0)
+      {
+         final RateLimiter limiter = new RateLimiter(sweepRate);
+         sweeper = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("CASSANDRA_PING sweeper"));
+         sweeper.scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               String clustername = group_addr;
+               if (clustername != null)
+                  sweep(clustername, limiter);
+            }
+         }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+      }
+      if (hostCacheDir != null && hostCacheRefreshInterval > 0)
+      {
+         hostCacheRefresher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("CASSANDRA_PING host cache"));
+         hostCacheRefresher.scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               refreshHostCaches();
+            }
+         }, hostCacheRefreshInterval, hostCacheRefreshInterval, TimeUnit.MILLISECONDS);
+      }
+      if (viewSnapshot && viewSnapshotMaxAge > 0)
+      {
+         // a stable view is never rewritten otherwise, and would age out
+         long interval = Math.max(1, viewSnapshotMaxAge / 2);
+         viewSnapshotRefresher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("CASSANDRA_PING view snapshot"));
+         viewSnapshotRefresher.scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               View v = lastView;
+               if (isCoordinator(v))
+                  writeViewSnapshot(v);
+            }
+         }, interval, interval, TimeUnit.MILLISECONDS);
+      }
+      if (leaseRefreshInterval > 0)
+      {
+         synchronized (leaseLock)
+         {
+            // the refresh writes to Cassandra, which must not block the shared JGroups timer
+            leaseExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("CASSANDRA_PING lease refresh"));
+            leaseSchedule = new LeaseSchedule(leaseRefreshInterval, leaseMaxInterval, leaseStretchFactor, leaseJitter, new Random());
+            scheduleLeaseRefresh(leaseSchedule.first());
+         }
+      }
+   }
+
+   @Override
+   public void stop()
+   {
+      if (sweeper != null)
+      {
+         sweeper.shutdownNow();
+         sweeper = null;
+      }
+      if (hostCacheRefresher != null)
+      {
+         hostCacheRefresher.shutdownNow();
+         hostCacheRefresher = null;
+      }
+      if (viewSnapshotRefresher != null)
+      {
+         viewSnapshotRefresher.shutdownNow();
+         viewSnapshotRefresher = null;
+      }
+      synchronized (leaseLock)
+      {
+         leaseSchedule = null;
+         if (leaseRefresher != null)
+         {
+            leaseRefresher.cancel(false);
+            leaseRefresher = null;
+         }
+         if (leaseExecutor != null)
+         {
+            leaseExecutor.shutdownNow();
+            leaseExecutor = null;
+         }
+      }
+      lastView = null;
+      super.stop();
+   }
+
    @Override
    public void destroy()
    {
       try
       {
-         client = null;
-         TTransport temp = tr;
-         tr = null;
-         temp.close();
+         WriteBehindQueue queue = writeBehindQueue;
+         if (queue != null)
+         {
+            writeBehindQueue = null;
+            try
+            {
+               int dropped = queue.close(writeBehindFlushTimeout);
+               if (dropped > 0)
+                  log.warn("Dropped " + dropped + " pending write-behind operations, not flushed within " + writeBehindFlushTimeout + " ms");
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+
+         snapshots.clear();
+         for (HostCache hostCache : hostCaches.values())
+            hostCache.close();
+         hostCaches.clear();
+         if (decodeCache != null)
+            decodeCache.clear();
+         prefetched.set(null);
+         CassandraBackend temp;
+         synchronized (connectLock)
+         {
+            connecting = null;
+            temp = backend;
+            backend = null;
+         }
+         if (temp != null)
+            temp.release();
       }
       finally
       {
@@ -138,67 +531,1237 @@ public class CASSANDRA_PING extends FILE_PING
       }
    }
 
+   /**
+    * Execute action on our Cassandra client.
+    *
+    * @param executor the executor
+    * @return op result
+    * @throws Throwable for any error
+    */
+   protected <T> T execute(ClientExecutor<T> executor) throws Throwable
+   {
+      return getBackend().execute(executor);
+   }
+
+   /**
+    * Execute keyed action on a replica of the key, if known,
+    * falling back to our configured host.
+    *
+    * @param key the row key
+    * @param executor the executor
+    * @return op result
+    * @throws Throwable for any error
+    */
+   protected <T> T execute(byte[] key, ClientExecutor<T> executor) throws Throwable
+   {
+      return getBackend().execute(key, executor);
+   }
+
+   private OpTrace beginTrace(String operation, String clustername)
+   {
+      SlowOpLog sol = slowOpLog;
+      return (sol != null) ? sol.begin(operation + " " + clustername) : null;
+   }
+
+   private void endTrace(OpTrace trace)
+   {
+      if (trace != null)
+         slowOpLog.end(trace);
+   }
+
+   /**
+    * Run the operation in the background if write-behind is enabled, else run it now.
+    *
+    * @param key the operation key, a pending operation with the same key is replaced
+    * @param operation the operation
+    */
+   private void writeBehind(Object key, Runnable operation)
+   {
+      WriteBehindQueue queue = writeBehindQueue;
+      if (queue == null)
+         operation.run();
+      else if (queue.offer(key, operation) == false)
+         log.warn("Write-behind queue full or closed, dropped " + key);
+   }
+
+   /**
+    * Wait for the JVM-wide limiter, if any.
+    *
+    * @param lane the op's priority
+    * @throws InterruptedException if interrupted while waiting
+    */
+   private void throttle(PriorityLimiter.Lane lane) throws InterruptedException
+   {
+      PriorityLimiter current = priorityLimiter;
+      if (current != null)
+         current.acquire(lane);
+   }
+
+   private CassandraBackend getBackend()
+   {
+      CassandraBackend current = backend;
+      if (current != null)
+         return current;
+
+      CountDownLatch latch = connecting;
+      if (latch == null)
+         throw new IllegalStateException("Not connected to Cassandra");
+      try
+      {
+         if (latch.await(connectWaitTimeout, TimeUnit.MILLISECONDS) == false)
+            throw new IllegalStateException("Not connected to Cassandra within " + connectWaitTimeout + " ms");
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while connecting to Cassandra");
+      }
+
+      current = backend;
+      if (current != null)
+         return current;
+
+      Exception failure = connectFailure;
+      synchronized (connectLock)
+      {
+         // retry, for the next operation
+         if (connecting == latch)
+            connectInBackground();
+      }
+      throw new IllegalStateException("Cannot connect to Cassandra", failure);
+   }
+
+   private void scheduleLeaseRefresh(long delay)
+   {
+      synchronized (leaseLock)
+      {
+         if (leaseSchedule == null)
+            return;
+
+         if (leaseRefresher != null)
+            leaseRefresher.cancel(false);
+         leaseDue = System.currentTimeMillis() + delay;
+         leaseRefresher = leaseExecutor.schedule(new Runnable()
+         {
+            public void run()
+            {
+               refreshLease();
+               synchronized (leaseLock)
+               {
+                  if (leaseSchedule != null)
+                     scheduleLeaseRefresh(leaseSchedule.next());
+               }
+            }
+         }, delay, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   private void leaseViewChanged()
+   {
+      synchronized (leaseLock)
+      {
+         if (leaseSchedule == null)
+            return;
+
+         long delay = leaseSchedule.viewChanged();
+         if (leaseDue - System.currentTimeMillis() > delay)
+            scheduleLeaseRefresh(delay);
+      }
+   }
+
+   /**
+    * Rewrite our own entry as the coordinator's,
+    * so streaming readers with break_on_coord_rsp can stop at it.
+    *
+    * @param view the new view
+    */
+   protected void writeCoordinator(View view)
+   {
+      String clustername = group_addr;
+      if (clustername != null)
+         writeToFile(createLocalData(view), clustername);
+   }
+
+   /**
+    * Rewrite our own entry.
+    */
+   protected void refreshLease()
+   {
+      String clustername = group_addr;
+      if (clustername == null || local_addr == null)
+         return;
+
+      View v = lastView;
+      writeToFile(createLocalData(streamingRead && isCoordinator(v) ? v : null), clustername);
+      if (viewSnapshot && isCoordinator(v))
+         writeViewSnapshot(v);
+   }
+
+   /**
+    * Publish the whole membership as a single entry, for joiners to read with one get.
+    * <p/>
+    * The snapshot holds every member's logical name and physical address,
+    * and our, the coordinator's, entry with the view.
+    *
+    * @param view the current view
+    */
+   protected void writeViewSnapshot(View view)
+   {
+      String clustername = group_addr;
+      if (clustername == null)
+         return;
+
+      try
+      {
+         List<byte[]> entries = new ArrayList<byte[]>(view.size());
+         for (Address member : view.getMembers())
+         {
+            boolean coord = member.equals(local_addr);
+            PhysicalAddress physical = (PhysicalAddress) down_prot.down(new Event(Event.GET_PHYSICAL_ADDRESS, member));
+            List<PhysicalAddress> physicalAddrs = physical != null ? Collections.singletonList(physical) : Collections.<PhysicalAddress>emptyList();
+            entries.add(streamableToByteBuffer(new PingData(member, coord ? view : null, true, UUID.get(member), physicalAddrs)));
+         }
+         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+         DataOutputStream out = new DataOutputStream(baos);
+         MembershipSnapshot.writeEntries(out, entries);
+         out.flush();
+         final String cf = clustername;
+         final byte[] value = baos.toByteArray();
+         writeBehind(Arrays.<Object>asList(clustername, "view"), new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  throttle(PriorityLimiter.Lane.WRITE);
+                  long timestamp = System.currentTimeMillis();
+                  getBackend().insert(VIEW_KEY, cf, new Column(ByteBuffer.wrap(DATA), ByteBuffer.wrap(value), timestamp));
+               }
+               catch (Throwable t)
+               {
+                  log.debug("Cannot write view snapshot.", t);
+               }
+            }
+         });
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot write view snapshot.", t);
+      }
+   }
+
+   /**
+    * Remove the view snapshot, e.g. once the last member left.
+    *
+    * @param clustername the cluster name
+    */
+   protected void removeViewSnapshot(final String clustername)
+   {
+      // same key as the write, so a pending write is replaced
+      writeBehind(Arrays.<Object>asList(clustername, "view"), new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               throttle(PriorityLimiter.Lane.REMOVE);
+               execute(VIEW_KEY, new ClientExecutor<Object>()
+               {
+                  public Object execute(Cassandra.Client client) throws Throwable
+                  {
+                     client.remove(ByteBuffer.wrap(VIEW_KEY), new ColumnPath(clustername), System.currentTimeMillis(), ConsistencyLevel.ONE);
+                     return null;
+                  }
+               });
+            }
+            catch (Throwable t)
+            {
+               log.debug("Cannot remove view snapshot.", t);
+            }
+         }
+      });
+   }
+
+   /**
+    * Read the coordinator's view snapshot.
+    *
+    * @param clustername the cluster name
+    * @return ping data of all members, or null if there is no usable snapshot
+    * @throws Throwable for any error
+    */
+   protected List<PingData> readViewSnapshot(final String clustername) throws Throwable
+   {
+      throttle(PriorityLimiter.Lane.READ);
+      Column column = execute(VIEW_KEY, new ClientExecutor<Column>()
+      {
+         public Column execute(Cassandra.Client client) throws Throwable
+         {
+            ColumnPath path = new ColumnPath(clustername);
+            path.setColumn(DATA);
+            try
+            {
+               return client.get(ByteBuffer.wrap(VIEW_KEY), path, ConsistencyLevel.ONE).column;
+            }
+            catch (NotFoundException e)
+            {
+               return null;
+            }
+         }
+      });
+      if (column == null)
+         return null;
+      if (viewSnapshotMaxAge > 0 && column.getTimestamp() < System.currentTimeMillis() - viewSnapshotMaxAge)
+         return null;
+
+      List<byte[]> entries;
+      try
+      {
+         entries = MembershipSnapshot.readEntries(column.getValue());
+      }
+      catch (IOException e)
+      {
+         // corrupt snapshot, read the members instead
+         log.debug("Invalid view snapshot: " + e.getMessage());
+         return null;
+      }
+      List<PingData> results = decode(entries);
+      return results.isEmpty() ? null : results;
+   }
+
+   /**
+    * Create our own ping data.
+    *
+    * @param view the view if we're the coordinator, null otherwise
+    * @return ping data
+    */
+   private PingData createLocalData(View view)
+   {
+      PhysicalAddress physical = (PhysicalAddress) down_prot.down(new Event(Event.GET_PHYSICAL_ADDRESS, local_addr));
+      List<PhysicalAddress> physicalAddrs = physical != null ? Collections.singletonList(physical) : Collections.<PhysicalAddress>emptyList();
+      return new PingData(local_addr, view, view != null, UUID.get(local_addr), physicalAddrs);
+   }
+
    @Override
-   protected void writeToFile(PingData data, String clustername)
+   protected void writeToFile(final PingData data, final String clustername)
+   {
+      writeBehind(Arrays.<Object>asList(clustername, data.getAddress()), new Runnable()
+      {
+         public void run()
+         {
+            writeNow(data, clustername);
+         }
+      });
+   }
+
+   /**
+    * Write ping data on the calling thread.
+    *
+    * @param data the ping data
+    * @param clustername the cluster name
+    */
+   protected void writeNow(PingData data, String clustername)
    {
       try
       {
-         ColumnParent table = new ColumnParent(clustername);
-         long timestamp = System.currentTimeMillis();
+         writeChecked(data, clustername);
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot write ping data.", t);
+      }
+   }
+
+   /**
+    * Write ping data on the calling thread, failing on any error.
+    *
+    * @param data the ping data
+    * @param clustername the cluster name
+    * @throws Throwable for any error
+    */
+   protected void writeChecked(PingData data, String clustername) throws Throwable
+   {
+      OpTrace trace = beginTrace("writeToFile", clustername);
+      try
+      {
+         throttle(PriorityLimiter.Lane.WRITE);
          byte[] id = streamableToByteBuffer(data.getAddress());
-         client.insert(ByteBuffer.wrap(id), table, new Column(ByteBuffer.wrap(DATA), ByteBuffer.wrap(streamableToByteBuffer(data)), timestamp), ConsistencyLevel.ONE);
+         ByteBuffer value = ByteBuffer.wrap(streamableToByteBuffer(data));
+         long timestamp = System.currentTimeMillis();
+         if (buckets > 0)
+            getBackend().insert(bucketKey(id), clustername, new Column(ByteBuffer.wrap(id), value, timestamp));
+         else
+            getBackend().insert(id, clustername, new Column(ByteBuffer.wrap(DATA), value, timestamp));
       }
-      catch (Exception e)
+      finally
       {
-         log.debug("Cannot write ping data.", e);
+         endTrace(trace);
       }
    }
 
    @Override
    protected List<PingData> readAll(String clustername)
+   {
+      Prefetch current = prefetched.get();
+      // served once, later reads, e.g. the coordinator's cleanup on view change, must see fresh entries
+      if (current != null && current.clustername.equals(clustername) && prefetched.compareAndSet(current, null))
+      {
+         // a hanging prefetch must not stall discovery, read ourselves then
+         List<PingData> results = current.await(connectWaitTimeout);
+         if (results != null && System.currentTimeMillis() - current.completed <= prefetchTtl)
+            return new ArrayList<PingData>(results);
+      }
+      return readNow(clustername);
+   }
+
+   /**
+    * Read the cluster's entries speculatively, so discovery finds the read completed or in flight.
+    *
+    * @param clustername the cluster name
+    */
+   protected void prefetch(final String clustername)
+   {
+      final Prefetch current = new Prefetch(clustername);
+      prefetched.set(current);
+      new DaemonThreadFactory("CASSANDRA_PING prefetch").newThread(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               current.done(readNow(clustername));
+            }
+            catch (Throwable t)
+            {
+               current.done(null);
+               log.debug("Cannot prefetch ping data.", t);
+            }
+         }
+      }).start();
+   }
+
+   /**
+    * Read the cluster's entries on the calling thread.
+    *
+    * @param clustername the cluster name
+    * @return ping data
+    */
+   protected List<PingData> readNow(String clustername)
+   {
+      MembershipSnapshot snapshot = getSnapshot(clustername);
+      if (snapshot != null && snapshots.putIfAbsent(clustername, snapshot) == null)
+      {
+         // first read of this cluster, serve the persisted membership while the live read runs
+         List<byte[]> entries = snapshot.read();
+         if (entries != null)
+         {
+            refreshSnapshot(clustername, snapshot);
+            return decode(entries);
+         }
+      }
+
+      HostCache hostCache = getHostCache(clustername);
+      boolean leaseHolder = (hostCache != null && hostCache.isLeaseHolder());
+      if (hostCache != null && leaseHolder == false)
+      {
+         List<byte[]> entries = hostCache.read(hostCacheMaxAge);
+         if (entries != null)
+            return decode(entries);
+      }
+
+      OpTrace trace = beginTrace("readAll", clustername);
+      try
+      {
+         if (leaseHolder)
+         {
+            // full read, other JVMs of this host rely on the published entries
+            List<byte[]> entries = readEntries(clustername);
+            publish(hostCache, entries);
+            storeSnapshot(snapshot, entries);
+            return decode(entries);
+         }
+         if (viewSnapshot)
+         {
+            List<PingData> published = readViewSnapshot(clustername);
+            if (published != null)
+               return published;
+         }
+         if (streamingRead)
+            return readUntilEnough(clustername, trace);
+
+         List<byte[]> entries = readEntries(clustername);
+         long start = System.nanoTime();
+         List<PingData> results = decode(entries);
+         if (trace != null)
+            trace.decoded(results.size(), System.nanoTime() - start);
+         storeSnapshot(snapshot, entries);
+         return results;
+      }
+      catch (Throwable t)
+      {
+         log.debug(t.getMessage());
+      }
+      finally
+      {
+         endTrace(trace);
+      }
+
+      if (snapshot != null)
+      {
+         List<byte[]> entries = snapshot.read();
+         if (entries != null)
+            return decode(entries);
+      }
+      return new ArrayList<PingData>();
+   }
+
+   /**
+    * Read raw ping data of all cluster members.
+    *
+    * @param clustername the cluster name
+    * @return raw ping data
+    * @throws Throwable for any error
+    */
+   protected List<byte[]> readEntries(final String clustername) throws Throwable
+   {
+      throttle(PriorityLimiter.Lane.READ);
+      if (buckets > 0)
+      {
+         return getBackend().read(clustername, new ClientExecutor<List<byte[]>>()
+         {
+            public List<byte[]> execute(Cassandra.Client client) throws Throwable
+            {
+               List<ByteBuffer> keys = new ArrayList<ByteBuffer>(buckets);
+               for (byte[] key : bucketKeys)
+                  keys.add(ByteBuffer.wrap(key));
+               // a single request, the coordinator node reads the buckets in parallel
+               Map<ByteBuffer, List<ColumnOrSuperColumn>> rows = client.multiget_slice(keys, new ColumnParent(clustername), bucketPredicate(), ConsistencyLevel.ONE);
+               List<byte[]> entries = new ArrayList<byte[]>();
+               for (List<ColumnOrSuperColumn> columns : rows.values())
+               {
+                  for (ColumnOrSuperColumn column : columns)
+                     entries.add(column.column.getValue());
+               }
+               return entries;
+            }
+         });
+      }
+
+      return getBackend().read(clustername, new ClientExecutor<List<byte[]>>()
+      {
+         public List<byte[]> execute(Cassandra.Client client) throws Throwable
+         {
+            ColumnParent cp = new ColumnParent(clustername);
+            SlicePredicate predicate = new SlicePredicate();
+            predicate.setColumn_names(Collections.singletonList(ByteBuffer.wrap(DATA)));
+            KeyRange range = new KeyRange();
+            range.setStart_key(new byte[0]);
+            range.setEnd_key(new byte[0]);
+            List<KeySlice> slices = client.get_range_slices(cp, predicate, range, ConsistencyLevel.ONE);
+            List<byte[]> entries = new ArrayList<byte[]>(slices.size());
+            for (KeySlice ks : slices)
+            {
+               if (Arrays.equals(ks.getKey(), VIEW_KEY))
+                  continue;
+
+               List<ColumnOrSuperColumn> columns = ks.getColumns();
+               if (columns.isEmpty())
+                  continue;
+
+               ColumnOrSuperColumn column = columns.get(0);
+               entries.add(column.column.getValue());
+            }
+            return entries;
+         }
+      });
+   }
+
+   /**
+    * Read the cluster page by page, until we have what discovery waits for,
+    * e.g. num_initial_members entries or the coordinator's entry.
+    * <p/>
+    * The result is usually partial, hence it's neither coalesced with nor stored as a full read.
+    *
+    * @param clustername the cluster name
+    * @param trace the current trace, can be null
+    * @return ping data read so far
+    * @throws Throwable for any error
+    */
+   protected List<PingData> readUntilEnough(String clustername, OpTrace trace) throws Throwable
    {
       List<PingData> results = new ArrayList<PingData>();
+      if (buckets > 0)
+      {
+         for (int i = 0; i < buckets && isEnough(results) == false; i++)
+         {
+            throttle(PriorityLimiter.Lane.READ);
+            List<Column> columns = readBucket(clustername, i);
+            List<byte[]> entries = new ArrayList<byte[]>(columns.size());
+            for (Column column : columns)
+               entries.add(column.getValue());
+
+            long begin = System.nanoTime();
+            List<PingData> page = decode(entries);
+            if (trace != null)
+               trace.decoded(page.size(), System.nanoTime() - begin);
+            results.addAll(page);
+         }
+         return results;
+      }
+
+      int count = Math.max(2, readPageSize); // one entry per page is the repeated start key
+      byte[] start = new byte[0];
+      while (true)
+      {
+         throttle(PriorityLimiter.Lane.READ);
+         List<KeySlice> slices = readPage(clustername, start, count);
+         List<byte[]> entries = new ArrayList<byte[]>(slices.size());
+         for (KeySlice ks : slices)
+         {
+            // start key is inclusive, we already saw it on the previous page
+            if (Arrays.equals(ks.getKey(), start) || Arrays.equals(ks.getKey(), VIEW_KEY))
+               continue;
+
+            List<ColumnOrSuperColumn> columns = ks.getColumns();
+            if (columns.isEmpty() == false)
+               entries.add(columns.get(0).column.getValue());
+         }
+
+         long begin = System.nanoTime();
+         List<PingData> page = decode(entries);
+         if (trace != null)
+            trace.decoded(page.size(), System.nanoTime() - begin);
+         results.addAll(page);
+
+         if (isEnough(results) || slices.size() < count)
+            return results;
+         start = slices.get(slices.size() - 1).getKey();
+      }
+   }
+
+   /**
+    * Do we have enough responses to stop reading.
+    *
+    * @param results the ping data read so far
+    * @return true if discovery would return with these
+    */
+   protected boolean isEnough(List<PingData> results)
+   {
+      if (num_initial_members > 0 && results.size() >= num_initial_members)
+         return true;
+
+      if (break_on_coord_rsp)
+      {
+         for (PingData data : results)
+            if (data.isCoord())
+               return true;
+      }
+      return false;
+   }
+
+   /**
+    * Read all entries of a bucket.
+    *
+    * @param clustername the cluster name
+    * @param bucket the bucket index
+    * @return the bucket's columns, named by member address
+    * @throws Throwable for any error
+    */
+   protected List<Column> readBucket(final String clustername, int bucket) throws Throwable
+   {
+      final byte[] key = bucketKeys[bucket];
+      List<ColumnOrSuperColumn> columns = execute(key, new ClientExecutor<List<ColumnOrSuperColumn>>()
+      {
+         public List<ColumnOrSuperColumn> execute(Cassandra.Client client) throws Throwable
+         {
+            return client.get_slice(ByteBuffer.wrap(key), new ColumnParent(clustername), bucketPredicate(), ConsistencyLevel.ONE);
+         }
+      });
+      List<Column> result = new ArrayList<Column>(columns.size());
+      for (ColumnOrSuperColumn column : columns)
+         result.add(column.column);
+      return result;
+   }
+
+   /**
+    * Get the bucket row key of an entry.
+    *
+    * @param id the entry id, the serialized member address
+    * @return the row key
+    */
+   protected byte[] bucketKey(byte[] id)
+   {
+      return bucketKeys[(Arrays.hashCode(id) & Integer.MAX_VALUE) % buckets];
+   }
+
+   private static SlicePredicate bucketPredicate()
+   {
+      SliceRange range = new SliceRange();
+      range.setStart(new byte[0]);
+      range.setFinish(new byte[0]);
+      range.setCount(Integer.MAX_VALUE);
+      SlicePredicate predicate = new SlicePredicate();
+      predicate.setSlice_range(range);
+      return predicate;
+   }
+
+   /**
+    * Read a page of the cluster's entries.
+    *
+    * @param clustername the cluster name
+    * @param start the inclusive start key, empty for the first page
+    * @param count the page size
+    * @return the page
+    * @throws Throwable for any error
+    */
+   protected List<KeySlice> readPage(String clustername, byte[] start, int count) throws Throwable
+   {
+      final ColumnParent cp = new ColumnParent(clustername);
+      final SlicePredicate predicate = new SlicePredicate();
+      predicate.setColumn_names(Collections.singletonList(ByteBuffer.wrap(DATA)));
+      final KeyRange range = new KeyRange();
+      range.setCount(count);
+      range.setStart_key(start);
+      range.setEnd_key(new byte[0]);
+      return execute(new ClientExecutor<List<KeySlice>>()
+      {
+         public List<KeySlice> execute(Cassandra.Client client) throws Throwable
+         {
+            return client.get_range_slices(cp, predicate, range, ConsistencyLevel.ONE);
+         }
+      });
+   }
+
+   /**
+    * Decode raw ping data.
+    * <p/>
+    * Unchanged entries are served from the decode cache, if enabled.
+    *
+    * @param entries the raw entries
+    * @return ping data
+    */
+   protected List<PingData> decode(List<byte[]> entries)
+   {
+      List<PingData> results = new ArrayList<PingData>(entries.size());
+      for (byte[] bytes : entries)
+      {
+         try
+         {
+            if (decodeCache != null)
+               results.add(decodeCache.decode(bytes));
+            else
+               results.add((PingData) Util.streamableFromByteBuffer(PingData.class, bytes));
+         }
+         catch (Exception e)
+         {
+            log.debug("Cannot read ping data.", e);
+         }
+      }
+      return results;
+   }
+
+   private HostCache getHostCache(String clustername)
+   {
+      if (hostCacheDir == null)
+         return null;
+
+      HostCache hostCache = hostCaches.get(clustername);
+      if (hostCache == null)
+      {
+         try
+         {
+            hostCache = HostCache.open(new File(hostCacheDir), keyspace, clustername, hostCacheSize);
+         }
+         catch (IOException e)
+         {
+            log.debug("Cannot open host cache.", e);
+            return null;
+         }
+         HostCache previous = hostCaches.putIfAbsent(clustername, hostCache);
+         if (previous != null)
+         {
+            hostCache.close();
+            hostCache = previous;
+         }
+      }
+      return hostCache;
+   }
+
+   /**
+    * Republish the host caches we hold the lease of, so the other JVMs of this host
+    * keep reading fresh entries even if we don't run discovery ourselves.
+    * A JVM which doesn't hold the lease takes it over here once the holder is gone.
+    */
+   protected void refreshHostCaches()
+   {
+      for (Map.Entry<String, HostCache> entry : hostCaches.entrySet())
+      {
+         HostCache hostCache = entry.getValue();
+         if (hostCache.isLeaseHolder() == false)
+            continue;
+
+         try
+         {
+            publish(hostCache, readEntries(entry.getKey()));
+         }
+         catch (Throwable t)
+         {
+            log.debug("Cannot refresh host cache.", t);
+         }
+      }
+   }
+
+   private void publish(HostCache hostCache, List<byte[]> entries)
+   {
+      try
+      {
+         if (hostCache.publish(entries) == false)
+            log.debug("Membership too big for host cache " + hostCache.getFile() + ", increase host-cache-size.");
+      }
+      catch (IOException e)
+      {
+         log.debug("Cannot publish to host cache.", e);
+      }
+   }
+
+   private MembershipSnapshot getSnapshot(String clustername)
+   {
+      if (snapshotDir == null)
+         return null;
+
+      MembershipSnapshot snapshot = snapshots.get(clustername);
+      if (snapshot == null)
+         snapshot = MembershipSnapshot.create(new File(snapshotDir), keyspace, clustername);
+      return snapshot;
+   }
+
+   private void storeSnapshot(MembershipSnapshot snapshot, List<byte[]> entries)
+   {
+      if (snapshot == null)
+         return;
+
       try
       {
-         ColumnParent cp = new ColumnParent(clustername);
+         snapshot.write(entries);
+      }
+      catch (Exception e)
+      {
+         log.debug("Cannot write membership snapshot.", e);
+      }
+   }
+
+   private void refreshSnapshot(final String clustername, final MembershipSnapshot snapshot)
+   {
+      Thread thread = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               storeSnapshot(snapshot, readEntries(clustername));
+            }
+            catch (Throwable t)
+            {
+               log.debug("Cannot refresh membership snapshot: " + t.getMessage());
+            }
+         }
+      }, "CASSANDRA_PING snapshot refresh (" + clustername + ")");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   @Override
+   protected void remove(final String clustername, final Address addr)
+   {
+      Set<Address> pending = pendingRemovals.get();
+      if (pending != null && clustername.equals(group_addr))
+      {
+         // we're handling a view change, all removals go into a single batch
+         pending.add(addr);
+         return;
+      }
+
+      writeBehind(Arrays.<Object>asList(clustername, addr), new Runnable()
+      {
+         public void run()
+         {
+            removeNow(clustername, addr);
+         }
+      });
+   }
+
+   /**
+    * Remove ping data on the calling thread.
+    *
+    * @param clustername the cluster name
+    * @param addr the member address
+    */
+   protected void removeNow(String clustername, Address addr)
+   {
+      try
+      {
+         removeChecked(clustername, addr);
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot remove ping data.", t);
+      }
+   }
+
+   /**
+    * Remove ping data on the calling thread, failing on any error.
+    *
+    * @param clustername the cluster name
+    * @param addr the member address
+    * @throws Throwable for any error
+    */
+   protected void removeChecked(final String clustername, Address addr) throws Throwable
+   {
+      OpTrace trace = beginTrace("remove", clustername);
+      try
+      {
+         final byte[] id = streamableToByteBuffer(addr);
+         final byte[] key = (buckets > 0) ? bucketKey(id) : id;
+         throttle(PriorityLimiter.Lane.REMOVE);
+         execute(key, new ClientExecutor<Object>()
+         {
+            public Object execute(Cassandra.Client client) throws Throwable
+            {
+               ColumnPath path = new ColumnPath(clustername);
+               if (buckets > 0)
+                  path.setColumn(id);
+               long timestamp = System.currentTimeMillis();
+               client.remove(ByteBuffer.wrap(key), path, timestamp, ConsistencyLevel.ONE);
+               return null;
+            }
+         });
+      }
+      finally
+      {
+         endTrace(trace);
+      }
+   }
+
+   /**
+    * Remove ping data of many members with a single batch.
+    *
+    * @param clustername the cluster name
+    * @param addrs the member addresses
+    */
+   protected void remove(final String clustername, Collection<Address> addrs)
+   {
+      if (addrs.isEmpty())
+         return;
+
+      final List<Address> copy = new ArrayList<Address>(addrs);
+      // a batch is not collapsed; later single ops of its members are queued behind it
+      writeBehind(new Object(), new Runnable()
+      {
+         public void run()
+         {
+            removeNow(clustername, copy);
+         }
+      });
+   }
+
+   /**
+    * Remove ping data of many members with a single batch, on the calling thread.
+    *
+    * @param clustername the cluster name
+    * @param addrs the member addresses
+    */
+   protected void removeNow(String clustername, Collection<Address> addrs)
+   {
+      OpTrace trace = beginTrace("batch remove", clustername);
+      try
+      {
+         List<byte[]> keys = new ArrayList<byte[]>(addrs.size());
+         for (Address addr : addrs)
+            keys.add(streamableToByteBuffer(addr));
+         removeKeys(clustername, keys);
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot remove ping data.", t);
+      }
+      finally
+      {
+         endTrace(trace);
+      }
+   }
+
+   /**
+    * Remove entries with a single batch sharing one timestamp.
+    *
+    * @param clustername the cluster name
+    * @param ids the entry ids, the serialized member addresses
+    * @throws Throwable for any error
+    */
+   protected void removeKeys(String clustername, Collection<byte[]> ids) throws Throwable
+   {
+      if (ids.isEmpty())
+         return;
+
+      // row key -> column names, a row per member or a few bucket rows
+      Map<ByteBuffer, List<ByteBuffer>> rows = new HashMap<ByteBuffer, List<ByteBuffer>>();
+      for (byte[] id : ids)
+      {
+         ByteBuffer key = ByteBuffer.wrap(buckets > 0 ? bucketKey(id) : id);
+         List<ByteBuffer> names = rows.get(key);
+         if (names == null)
+         {
+            names = new ArrayList<ByteBuffer>();
+            rows.put(key, names);
+         }
+         names.add(ByteBuffer.wrap(buckets > 0 ? id : DATA));
+      }
+
+      final Map<ByteBuffer, Map<String, List<Mutation>>> mutations = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+      long timestamp = System.currentTimeMillis();
+      for (Map.Entry<ByteBuffer, List<ByteBuffer>> entry : rows.entrySet())
+      {
          SlicePredicate predicate = new SlicePredicate();
-         predicate.setColumn_names(Collections.singletonList(ByteBuffer.wrap(DATA)));
-         KeyRange range = new KeyRange();
-         range.setStart_key(new byte[0]);
-         range.setEnd_key(new byte[0]);
-         List<KeySlice> slices = client.get_range_slices(cp, predicate, range, ConsistencyLevel.ONE);
+         predicate.setColumn_names(entry.getValue());
+         Deletion deletion = new Deletion();
+         deletion.setTimestamp(timestamp);
+         deletion.setPredicate(predicate);
+         Mutation mutation = new Mutation();
+         mutation.setDeletion(deletion);
+         mutations.put(entry.getKey(), Collections.singletonMap(clustername, Collections.singletonList(mutation)));
+      }
+      throttle(PriorityLimiter.Lane.REMOVE);
+      execute(new ClientExecutor<Object>()
+      {
+         public Object execute(Cassandra.Client client) throws Throwable
+         {
+            client.batch_mutate(mutations, ConsistencyLevel.ONE);
+            return null;
+         }
+      });
+   }
+
+   /**
+    * Sweep entries left behind by crashed members.
+    * <p/>
+    * Only the coordinator sweeps; entries whose address is not in the view
+    * and which were not written within the grace period are removed.
+    *
+    * @param clustername the cluster name
+    * @param limiter the ops budget
+    */
+   protected void sweep(String clustername, RateLimiter limiter)
+   {
+      try
+      {
+         int swept = (buckets > 0) ? sweepBuckets(clustername, limiter) : sweepRows(clustername, limiter);
+         if (swept > 0 && log.isDebugEnabled())
+            log.debug("Swept " + swept + " stale entries of " + clustername);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot sweep stale entries.", t);
+      }
+   }
+
+   private int sweepRows(String clustername, RateLimiter limiter) throws Throwable
+   {
+      byte[] start = new byte[0];
+      int count = Math.max(2, sweepPageSize); // one entry per page is the repeated start key
+      int swept = 0;
+      while (true)
+      {
+         View v = lastView;
+         if (isCoordinator(v) == false)
+            break;
+
+         limiter.acquire();
+         throttle(PriorityLimiter.Lane.REMOVE);
+         List<KeySlice> slices = readPage(clustername, start, count);
+
+         long deadline = System.currentTimeMillis() - sweepGracePeriod;
+         List<byte[]> stale = new ArrayList<byte[]>();
          for (KeySlice ks : slices)
          {
-            List<ColumnOrSuperColumn> columns = ks.getColumns();
-            if (columns.isEmpty())
+            byte[] key = ks.getKey();
+            // start key is inclusive, we already saw it on the previous page
+            if (Arrays.equals(key, start) || Arrays.equals(key, VIEW_KEY))
                continue;
 
-            ColumnOrSuperColumn column = columns.get(0);
-            byte[] bytes = column.column.getValue();
-            PingData data = (PingData) Util.streamableFromByteBuffer(PingData.class, bytes);
-            results.add(data);
+            List<ColumnOrSuperColumn> columns = ks.getColumns();
+            if (columns.isEmpty() == false && isStale(columns.get(0).column, v, deadline))
+               stale.add(key);
          }
-         return results;
+         swept += removeStale(clustername, stale, limiter);
+
+         if (slices.size() < count)
+            break;
+         start = slices.get(slices.size() - 1).getKey();
       }
-      catch (Exception e)
+      return swept;
+   }
+
+   private int sweepBuckets(String clustername, RateLimiter limiter) throws Throwable
+   {
+      int swept = 0;
+      for (int i = 0; i < buckets; i++)
       {
-         log.debug(e.getMessage());
+         View v = lastView;
+         if (isCoordinator(v) == false)
+            break;
+
+         limiter.acquire();
+         throttle(PriorityLimiter.Lane.REMOVE);
+         List<Column> columns = readBucket(clustername, i);
+
+         long deadline = System.currentTimeMillis() - sweepGracePeriod;
+         List<byte[]> stale = new ArrayList<byte[]>();
+         for (Column column : columns)
+         {
+            if (isStale(column, v, deadline))
+               stale.add(column.getName());
+         }
+         swept += removeStale(clustername, stale, limiter);
       }
-      return results;
+      return swept;
+   }
+
+   private boolean isStale(Column column, View v, long deadline)
+   {
+      if (column.getTimestamp() > deadline)
+         return false;
+
+      Address addr = null;
+      try
+      {
+         addr = ((PingData) Util.streamableFromByteBuffer(PingData.class, column.getValue())).getAddress();
+      }
+      catch (Exception ignored)
+      {
+         // cannot be read by anyone, remove it
+      }
+      return addr == null || v.containsMember(addr) == false;
+   }
+
+   private int removeStale(String clustername, List<byte[]> stale, RateLimiter limiter) throws Throwable
+   {
+      if (stale.isEmpty())
+         return 0;
+
+      limiter.acquire(stale.size());
+      removeKeys(clustername, stale);
+      return stale.size();
    }
 
    @Override
-   protected void remove(String clustername, Address addr)
+   public Object down(Event evt)
    {
+      switch (evt.getType())
+      {
+         case Event.CONNECT:
+         case Event.CONNECT_WITH_STATE_TRANSFER:
+         case Event.CONNECT_USE_FLUSH:
+         case Event.CONNECT_WITH_STATE_TRANSFER_USE_FLUSH:
+         {
+            if (prefetch && evt.getArg() instanceof String)
+               prefetch((String) evt.getArg());
+         }
+      }
+      if (evt.getType() != Event.VIEW_CHANGE)
+         return super.down(evt);
+
+      View newView = (View) evt.getArg();
+      Set<Address> removals = new HashSet<Address>();
+      pendingRemovals.set(removals);
       try
       {
-         ColumnPath path = new ColumnPath(clustername);
-         long timestamp = System.currentTimeMillis();
-         client.remove(ByteBuffer.wrap(streamableToByteBuffer(addr)), path, timestamp, ConsistencyLevel.ONE);
+         return super.down(evt);
       }
-      catch (Exception e)
+      finally
+      {
+         pendingRemovals.remove();
+         View previous = lastView;
+         lastView = newView;
+         leaseViewChanged();
+         if (isCoordinator(newView))
+         {
+            if (streamingRead)
+               writeCoordinator(newView);
+            if (viewSnapshot)
+               writeViewSnapshot(newView);
+            if (previous != null)
+            {
+               for (Address addr : previous.getMembers())
+               {
+                  if (newView.containsMember(addr) == false)
+                     removals.add(addr);
+               }
+            }
+            if (group_addr != null)
+               remove(group_addr, removals);
+         }
+      }
+   }
+
+   /**
+    * Get the last installed view.
+    *
+    * @return the view, or null if none yet
+    */
+   protected View getLastView()
+   {
+      return lastView;
+   }
+
+   /**
+    * Are we the coordinator of the view.
+    *
+    * @param v the view
+    * @return true if coordinator, false otherwise
+    */
+   protected boolean isCoordinator(View v)
+   {
+      if (v == null || local_addr == null)
+         return false;
+
+      List<Address> members = v.getMembers();
+      return members.isEmpty() == false && local_addr.equals(members.get(0));
+   }
+
+   private static class Prefetch
+   {
+      private final String clustername;
+      private final CountDownLatch latch = new CountDownLatch(1);
+      private volatile List<PingData> results;
+      private volatile long completed;
+
+      private Prefetch(String clustername)
+      {
+         this.clustername = clustername;
+      }
+
+      void done(List<PingData> results)
       {
-         log.debug("Cannot remove ping data.", e);
+         this.results = results;
+         completed = System.currentTimeMillis();
+         latch.countDown();
+      }
+
+      List<PingData> await(long timeout)
+      {
+         try
+         {
+            if (latch.await(timeout, TimeUnit.MILLISECONDS) == false)
+               return null;
+            return results;
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            return null;
+         }
       }
    }
 }
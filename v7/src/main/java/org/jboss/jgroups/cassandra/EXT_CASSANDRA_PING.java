@@ -25,18 +25,27 @@ package org.jboss.jgroups.cassandra;
 
 import org.jboss.jgroups.cassandra.plugins.BaseCassandraSPI;
 import org.jboss.jgroups.cassandra.spi.CassandraSPI;
+import org.jboss.jgroups.cassandra.spi.ColumnFamilyReaper;
 import org.jgroups.Event;
+import org.jgroups.View;
 import org.jgroups.annotations.Experimental;
+import org.jgroups.annotations.Property;
 
 /**
  * Extended Cassandra ping implementation,
  * it uses SPI to create database elements needed for the ping to work.
+ * <p/>
+ * A cluster's column family is dropped once its last member left,
+ * after a grace period during which a (re)connecting member keeps it.
  *
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 @Experimental
 public class EXT_CASSANDRA_PING extends CASSANDRA_PING
 {
+   @Property(name = "drop-grace-period", description = "Time in milliseconds after the last member left before the cluster's column family is dropped")
+   protected long dropGracePeriod = 60000;
+
    private transient CassandraSPI cassandraSPI;
 
    public Object down(Event event)
@@ -49,30 +58,48 @@ public class EXT_CASSANDRA_PING extends CASSANDRA_PING
          case Event.CONNECT_WITH_STATE_TRANSFER_USE_FLUSH:
          {
             String clusterName = (String) event.getArg();
+            ColumnFamilyReaper.cancel(keyspace, clusterName);
             getCassandraSPI().createColumnFamily(keyspace, clusterName);
          }
       }
+      // the disconnect event carries our address, not the cluster name
+      String leaving = (event.getType() == Event.DISCONNECT) ? group_addr : null;
       try
       {
          return super.down(event);
       }
       finally
       {
-         switch (event.getType())
-         {
-            case Event.DISCONNECT:
-            {
-               String clusterName = (String) event.getArg();
-               getCassandraSPI().dropColumnFamily(keyspace, clusterName);
-            }
-         }
+         if (leaving != null)
+            leave(leaving);
       }
    }
 
+   /**
+    * Remove our entries and schedule the column family drop,
+    * which only happens if no other member has entries by then.
+    *
+    * @param clusterName the cluster name
+    */
+   protected void leave(String clusterName)
+   {
+      if (local_addr != null)
+         remove(clusterName, local_addr);
+      View view = getLastView();
+      if (view == null || view.size() <= 1)
+         removeViewSnapshot(clusterName);
+      ColumnFamilyReaper.schedule(getCassandraSPI(), keyspace, clusterName, dropGracePeriod);
+   }
+
    public CassandraSPI getCassandraSPI()
    {
       if (cassandraSPI == null)
-         cassandraSPI = new BaseCassandraSPI();
+      {
+         BaseCassandraSPI spi = new BaseCassandraSPI();
+         spi.setHost(host);
+         spi.setPort(port);
+         cassandraSPI = spi;
+      }
       return cassandraSPI;
    }
 
@@ -23,20 +23,32 @@
 
 package org.jboss.jgroups.cassandra.plugins;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
 import org.apache.cassandra.locator.SimpleStrategy;
 import org.apache.cassandra.thrift.Cassandra;
 import org.apache.cassandra.thrift.CfDef;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
 import org.apache.cassandra.thrift.KsDef;
+import org.apache.cassandra.thrift.NotFoundException;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
+import org.jboss.jgroups.cassandra.CASSANDRA_PING;
 import org.jboss.jgroups.cassandra.spi.CassandraSPI;
+import org.jboss.jgroups.cassandra.spi.DiscoveryProfile;
+import org.jgroups.logging.LogFactory;
 
 /**
  * Base Cassandra SPI impl.
@@ -45,13 +57,23 @@ import org.jboss.jgroups.cassandra.spi.CassandraSPI;
  */
 public class BaseCassandraSPI implements CassandraSPI
 {
+   private static final int PAGE_SIZE = 100;
+
    private String host = "localhost";
    private int port = 9160; // default?
    private String strategyClass = SimpleStrategy.class.getName();
+   private SlowOpLog slowOpLog;
 
    protected <T> T execute(ClientExecutor<T> executor)
    {
-      TTransport tr = new TSocket(host, port);
+      return execute(null, executor);
+   }
+
+   protected <T> T execute(String operation, ClientExecutor<T> executor)
+   {
+      SlowOpLog sol = slowOpLog;
+      OpTrace trace = (sol != null && operation != null) ? sol.begin(operation) : null;
+      TTransport tr = new TimingTransport(new TSocket(host, port));
       TFramedTransport tf = new TFramedTransport(tr);
       TProtocol proto = new TBinaryProtocol(tf);
       Cassandra.Client client = new Cassandra.Client(proto);
@@ -67,30 +89,36 @@ public class BaseCassandraSPI implements CassandraSPI
       finally
       {
          tf.close();
+         if (trace != null)
+            sol.end(trace);
       }
    }
 
-   public boolean createKeyspace(final String keyspaceName)
+   public boolean createKeyspace(String keyspaceName)
    {
-      return execute(new ClientExecutor<Boolean>()
+      return createKeyspace(keyspaceName, null);
+   }
+
+   public boolean createKeyspace(final String keyspaceName, final DiscoveryProfile profile)
+   {
+      return execute("createKeyspace " + keyspaceName, new ClientExecutor<Boolean>()
       {
          public Boolean execute(Cassandra.Client client) throws Throwable
          {
             List<KsDef> ksDefs = client.describe_keyspaces();
             for (KsDef ksDef : ksDefs)
                if (ksDef.getName().equals(keyspaceName))
-                  return true;
+                  return false;
 
-            KsDef ksDef = new KsDef(keyspaceName, strategyClass, 1, Collections.<CfDef>emptyList());
-            client.system_add_keyspace(ksDef);
-            return false;
+            client.system_add_keyspace(createKsDef(keyspaceName, profile));
+            return true;
          }
       });
    }
 
    public void dropKeyspace(final String keyspaceName)
    {
-      execute(new ClientExecutor<Object>()
+      execute("dropKeyspace " + keyspaceName, new ClientExecutor<Object>()
       {
          public Object execute(Cassandra.Client client) throws Throwable
          {
@@ -100,9 +128,14 @@ public class BaseCassandraSPI implements CassandraSPI
       });
    }
 
-   public boolean createColumnFamily(final String keyspaceName, final String columnFamily)
+   public boolean createColumnFamily(String keyspaceName, String columnFamily)
+   {
+      return createColumnFamily(keyspaceName, columnFamily, null);
+   }
+
+   public boolean createColumnFamily(final String keyspaceName, final String columnFamily, final DiscoveryProfile profile)
    {
-      return execute(new ClientExecutor<Boolean>()
+      return execute("createColumnFamily " + keyspaceName + "/" + columnFamily, new ClientExecutor<Boolean>()
       {
          public Boolean execute(Cassandra.Client client) throws Throwable
          {
@@ -112,20 +145,60 @@ public class BaseCassandraSPI implements CassandraSPI
             {
                CfDef cfDef = iter.next();
                if (cfDef.getName().equals(columnFamily))
-                  return true;
+                  return false;
             }
 
             client.set_keyspace(keyspaceName);
-            CfDef cfDef = new CfDef(keyspaceName, columnFamily);
-            client.system_add_column_family(cfDef);
-            return false;
+            client.system_add_column_family(createCfDef(keyspaceName, columnFamily, profile));
+            return true;
          }
       });
    }
 
+   /**
+    * Create keyspace definition.
+    *
+    * @param keyspaceName the keyspace name
+    * @param profile the discovery profile, null for defaults
+    * @return keyspace definition
+    */
+   protected KsDef createKsDef(String keyspaceName, DiscoveryProfile profile)
+   {
+      if (profile == null)
+         return new KsDef(keyspaceName, strategyClass, 1, Collections.<CfDef>emptyList());
+
+      String strategy = (profile.getReplicationStrategy() != null) ? profile.getReplicationStrategy() : strategyClass;
+      if (strategy.indexOf('.') < 0)
+         strategy = SimpleStrategy.class.getPackage().getName() + "." + strategy; // short name, e.g. NetworkTopologyStrategy
+      KsDef ksDef = new KsDef(keyspaceName, strategy, profile.getReplicationFactor(), Collections.<CfDef>emptyList());
+      if (profile.getStrategyOptions().isEmpty() == false)
+         ksDef.setStrategy_options(new HashMap<String, String>(profile.getStrategyOptions()));
+      return ksDef;
+   }
+
+   /**
+    * Create column family definition.
+    *
+    * @param keyspaceName the keyspace name
+    * @param columnFamily the column family
+    * @param profile the discovery profile, null for defaults
+    * @return column family definition
+    */
+   protected CfDef createCfDef(String keyspaceName, String columnFamily, DiscoveryProfile profile)
+   {
+      CfDef cfDef = new CfDef(keyspaceName, columnFamily);
+      if (profile != null)
+      {
+         cfDef.setRow_cache_size(profile.getRowCacheSize());
+         cfDef.setGc_grace_seconds(profile.getGcGraceSeconds());
+         cfDef.setRead_repair_chance(profile.getReadRepairChance());
+      }
+      return cfDef;
+   }
+
    public void dropColumnFamily(final String keyspaceName, final String columnFamily)
    {
-      execute(new ClientExecutor<Object>()
+      execute("dropColumnFamily " + keyspaceName + "/" + columnFamily, new ClientExecutor<Object>()
       {
          public Object execute(Cassandra.Client client) throws Throwable
          {
@@ -136,6 +209,58 @@ public class BaseCassandraSPI implements CassandraSPI
       });
    }
 
+   public boolean isColumnFamilyEmpty(final String keyspaceName, final String columnFamily)
+   {
+      return execute("isColumnFamilyEmpty " + keyspaceName + "/" + columnFamily, new ClientExecutor<Boolean>()
+      {
+         public Boolean execute(Cassandra.Client client) throws Throwable
+         {
+            boolean exists = false;
+            try
+            {
+               for (CfDef cfDef : client.describe_keyspace(keyspaceName).getCf_defs())
+                  exists |= cfDef.getName().equals(columnFamily);
+            }
+            catch (NotFoundException e)
+            {
+               return true;
+            }
+            if (exists == false)
+               return true;
+
+            client.set_keyspace(keyspaceName);
+            ColumnParent cp = new ColumnParent(columnFamily);
+            SliceRange first = new SliceRange();
+            first.setStart(new byte[0]);
+            first.setFinish(new byte[0]);
+            first.setCount(1);
+            SlicePredicate predicate = new SlicePredicate();
+            predicate.setSlice_range(first);
+            byte[] start = new byte[0];
+            while (true)
+            {
+               KeyRange range = new KeyRange();
+               range.setCount(PAGE_SIZE);
+               range.setStart_key(start);
+               range.setEnd_key(new byte[0]);
+               List<KeySlice> slices = client.get_range_slices(cp, predicate, range, ConsistencyLevel.ONE);
+               for (KeySlice ks : slices)
+               {
+                  // the view snapshot is not a member, it must not keep the column family around
+                  if (Arrays.equals(ks.getKey(), CASSANDRA_PING.VIEW_KEY))
+                     continue;
+                  // removed rows show up without columns until compacted
+                  if (ks.getColumns().isEmpty() == false)
+                     return false;
+               }
+               if (slices.size() < PAGE_SIZE)
+                  return true;
+               start = slices.get(slices.size() - 1).getKey();
+            }
+         }
+      });
+   }
+
    public void setHost(String host)
    {
       this.host = host;
@@ -150,4 +275,15 @@ public class BaseCassandraSPI implements CassandraSPI
    {
       this.strategyClass = strategyClass;
    }
+
+   /**
+    * Log operations slower than the threshold, with a timing breakdown.
+    *
+    * @param threshold the threshold in milliseconds, 0 disables it
+    * @param interval the min interval between two log entries in milliseconds
+    */
+   public void setSlowOpLog(long threshold, long interval)
+   {
+      this.slowOpLog = (threshold > 0) ? new SlowOpLog(LogFactory.getLog(getClass()), threshold, interval) : null;
+   }
 }
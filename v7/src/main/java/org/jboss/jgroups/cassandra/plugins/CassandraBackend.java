@@ -0,0 +1,659 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.thrift.transport.TTransportException;
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+/**
+ * Cassandra access of the ping protocols.
+ * <p/>
+ * Owns the connections, routes keyed operations to replicas, hedges slow reads
+ * and coalesces concurrent reads of the same data.
+ * Backends with identical settings can be shared by all channels of a JVM,
+ * in which case concurrent writes are also group committed.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CassandraBackend
+{
+   private static final Log log = LogFactory.getLog(CassandraBackend.class);
+   private static final Map<String, CassandraBackend> shared = new HashMap<String, CassandraBackend>();
+   private static final long REPLICA_DOWN_PERIOD = 30000;
+
+   private final String host;
+   private final int port;
+   private final String keyspace;
+
+   private String hedgeHosts;
+   private double hedgePercentile = 95;
+   private double hedgeBudget = 0.1;
+   private long hedgeMinDelay = 5;
+   private boolean tokenAware;
+   private long ringRefreshInterval = 60000;
+   private int socketTimeout = ClientConnection.DEFAULT_TIMEOUT;
+
+   private ClientConnection connection;
+   private volatile TokenRing ring;
+   private final ConcurrentMap<String, ClientConnection> replicaConnections = new ConcurrentHashMap<String, ClientConnection>();
+   private final ConcurrentMap<String, Long> downReplicas = new ConcurrentHashMap<String, Long>();
+   private ScheduledExecutorService ringRefresher;
+   private List<ClientConnection> hedgeConnections;
+   private final AtomicInteger nextHedge = new AtomicInteger();
+   private HedgePolicy hedgePolicy;
+   private ExecutorService hedgeExecutor;
+   private final ConcurrentMap<String, FutureTask<List<byte[]>>> inflightReads = new ConcurrentHashMap<String, FutureTask<List<byte[]>>>();
+
+   private GroupCommit groupCommit;
+   private int references;
+
+   public CassandraBackend(String host, int port, String keyspace)
+   {
+      if (host == null)
+         throw new IllegalArgumentException("Null host");
+      this.host = host;
+      this.port = port;
+      this.keyspace = keyspace;
+   }
+
+   /**
+    * Get the JVM-wide backend with the same settings as the given one,
+    * opening and registering the given one if there is none yet.
+    *
+    * @param backend the not yet opened backend
+    * @return the shared backend
+    * @throws Exception for any error
+    */
+   public static CassandraBackend acquire(CassandraBackend backend) throws Exception
+   {
+      String key = backend.getKey();
+      synchronized (shared)
+      {
+         CassandraBackend existing = shared.get(key);
+         if (existing == null)
+         {
+            backend.groupCommit = new GroupCommit(backend);
+            try
+            {
+               backend.open();
+            }
+            catch (Exception e)
+            {
+               backend.close();
+               throw e;
+            }
+            shared.put(key, backend);
+            existing = backend;
+         }
+         existing.references++;
+         return existing;
+      }
+   }
+
+   /**
+    * Release backend; a shared backend is closed once nobody uses it.
+    */
+   public void release()
+   {
+      synchronized (shared)
+      {
+         if (references > 0)
+         {
+            if (--references > 0)
+               return;
+            shared.remove(getKey());
+         }
+      }
+      close();
+   }
+
+   private String getKey()
+   {
+      return host + ":" + port + "/" + keyspace + "?token-aware=" + tokenAware + "&ring-refresh-interval=" + ringRefreshInterval +
+            "&hedge-hosts=" + hedgeHosts + "&hedge-percentile=" + hedgePercentile + "&hedge-budget=" + hedgeBudget + "&hedge-min-delay=" + hedgeMinDelay +
+            "&socket-timeout=" + socketTimeout;
+   }
+
+   /**
+    * Open the backend.
+    *
+    * @throws Exception for any error
+    */
+   public void open() throws Exception
+   {
+      connection = new ClientConnection(host, port, keyspace, socketTimeout);
+      connection.open();
+
+      if (hedgeHosts != null && hedgeHosts.trim().length() > 0)
+      {
+         hedgeConnections = new ArrayList<ClientConnection>();
+         for (String hostAndPort : hedgeHosts.split(","))
+         {
+            hostAndPort = hostAndPort.trim();
+            int p = hostAndPort.lastIndexOf(':');
+            if (p < 0)
+               hedgeConnections.add(new ClientConnection(hostAndPort, port, keyspace, socketTimeout));
+            else
+               hedgeConnections.add(new ClientConnection(hostAndPort.substring(0, p), Integer.parseInt(hostAndPort.substring(p + 1)), keyspace, socketTimeout));
+         }
+         hedgePolicy = new HedgePolicy(hedgePercentile, hedgeBudget, TimeUnit.MILLISECONDS.toNanos(hedgeMinDelay), 100);
+         hedgeExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("CASSANDRA_PING hedged read"));
+      }
+
+      if (tokenAware)
+      {
+         refreshRing();
+         if (ringRefreshInterval > 0)
+         {
+            ringRefresher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("CASSANDRA_PING ring refresh"));
+            ringRefresher.scheduleWithFixedDelay(new Runnable()
+            {
+               public void run()
+               {
+                  refreshRing();
+               }
+            }, ringRefreshInterval, ringRefreshInterval, TimeUnit.MILLISECONDS);
+         }
+      }
+   }
+
+   /**
+    * Close the backend.
+    */
+   public void close()
+   {
+      if (ringRefresher != null)
+      {
+         ringRefresher.shutdownNow();
+         ringRefresher = null;
+      }
+      if (hedgeExecutor != null)
+      {
+         hedgeExecutor.shutdownNow();
+         hedgeExecutor = null;
+      }
+      if (hedgeConnections != null)
+      {
+         for (ClientConnection hc : hedgeConnections)
+            hc.close();
+         hedgeConnections = null;
+      }
+      ring = null;
+      for (ClientConnection rc : replicaConnections.values())
+         rc.close();
+      replicaConnections.clear();
+      downReplicas.clear();
+      ClientConnection temp = connection;
+      connection = null;
+      if (temp != null)
+         temp.close();
+   }
+
+   /**
+    * Execute action on the configured host.
+    *
+    * @param executor the executor
+    * @return op result
+    * @throws Throwable for any error
+    */
+   public <T> T execute(ClientExecutor<T> executor) throws Throwable
+   {
+      ClientConnection current = connection;
+      if (current == null)
+         throw new IllegalStateException("Not connected to Cassandra");
+
+      return current.execute(executor);
+   }
+
+   /**
+    * Execute keyed action on a replica of the key, if known,
+    * falling back to the configured host.
+    * A replica failing with a transport error is skipped until the next ring refresh,
+    * or for at most 30 seconds, so its keys don't pay for a connect or socket timeout on every operation.
+    *
+    * @param key the row key
+    * @param executor the executor
+    * @return op result
+    * @throws Throwable for any error
+    */
+   public <T> T execute(byte[] key, ClientExecutor<T> executor) throws Throwable
+   {
+      ClientConnection replica = getReplicaConnection(key);
+      if (replica != null)
+      {
+         try
+         {
+            return replica.execute(executor);
+         }
+         catch (Throwable t)
+         {
+            if (t instanceof TTransportException)
+               downReplicas.put(replica.getHost(), System.currentTimeMillis() + REPLICA_DOWN_PERIOD);
+            if (log.isTraceEnabled())
+               log.trace("Cannot execute on replica " + replica + ", falling back to " + host + ": " + t.getMessage());
+         }
+      }
+      return execute(executor);
+   }
+
+   /**
+    * Insert column.
+    * Shared backends group commit concurrent inserts.
+    *
+    * @param key the row key
+    * @param columnFamily the column family
+    * @param column the column
+    * @throws Throwable for any error
+    */
+   public void insert(final byte[] key, final String columnFamily, final Column column) throws Throwable
+   {
+      if (groupCommit != null)
+      {
+         ColumnOrSuperColumn cosc = new ColumnOrSuperColumn();
+         cosc.setColumn(column);
+         Mutation mutation = new Mutation();
+         mutation.setColumn_or_supercolumn(cosc);
+         groupCommit.submit(key, columnFamily, mutation);
+      }
+      else
+      {
+         execute(key, new ClientExecutor<Object>()
+         {
+            public Object execute(Cassandra.Client client) throws Throwable
+            {
+               client.insert(ByteBuffer.wrap(key), new ColumnParent(columnFamily), column, ConsistencyLevel.ONE);
+               return null;
+            }
+         });
+      }
+   }
+
+   /**
+    * Read data; concurrent reads with the same key share a single request,
+    * slow reads are hedged if configured.
+    *
+    * @param key the read key, e.g. the column family
+    * @param reader the reader
+    * @return raw entries
+    * @throws Throwable for any error
+    */
+   public List<byte[]> read(String key, final ClientExecutor<List<byte[]>> reader) throws Throwable
+   {
+      FutureTask<List<byte[]>> task = new FutureTask<List<byte[]>>(new Callable<List<byte[]>>()
+      {
+         public List<byte[]> call() throws Exception
+         {
+            try
+            {
+               return Collections.unmodifiableList(hedgeExecutor != null ? hedgedRead(reader) : execute(reader));
+            }
+            catch (Exception e)
+            {
+               throw e;
+            }
+            catch (Throwable t)
+            {
+               throw new RuntimeException(t);
+            }
+         }
+      });
+      FutureTask<List<byte[]>> inflight = inflightReads.putIfAbsent(key, task);
+      if (inflight == null)
+      {
+         inflight = task;
+         try
+         {
+            task.run();
+         }
+         finally
+         {
+            inflightReads.remove(key, task);
+         }
+      }
+
+      try
+      {
+         return inflight.get();
+      }
+      catch (ExecutionException e)
+      {
+         throw e.getCause();
+      }
+   }
+
+   /**
+    * Read from the primary host; if it does not answer within the hedge delay,
+    * issue the same read against a hedge host and take whichever answers first.
+    * The loser's transport is closed, as interrupting does not stop a blocking socket read
+    * and the loser would otherwise keep its connection locked.
+    *
+    * @param reader the reader
+    * @return raw entries
+    * @throws Throwable for any error
+    */
+   private List<byte[]> hedgedRead(ClientExecutor<List<byte[]>> reader) throws Throwable
+   {
+      ClientConnection primary = connection;
+      if (primary == null)
+         throw new IllegalStateException("Not connected to Cassandra");
+
+      // the reads run on executor threads, their timings are added to the caller's trace
+      OpTrace trace = OpTrace.current();
+      CompletionService<List<byte[]>> service = new ExecutorCompletionService<List<byte[]>>(hedgeExecutor);
+      List<Future<List<byte[]>>> futures = new ArrayList<Future<List<byte[]>>>(2);
+      List<TimedRead> reads = new ArrayList<TimedRead>(2);
+      try
+      {
+         hedgePolicy.onRead();
+         TimedRead first = new TimedRead(primary, reader, trace != null);
+         reads.add(first);
+         futures.add(service.submit(first));
+         Future<List<byte[]>> done = service.poll(hedgePolicy.delay(), TimeUnit.NANOSECONDS);
+         if (done == null && hedgePolicy.tryHedge())
+         {
+            List<ClientConnection> hcs = hedgeConnections;
+            ClientConnection hedge = hcs.get((nextHedge.getAndIncrement() & Integer.MAX_VALUE) % hcs.size());
+            if (log.isTraceEnabled())
+               log.trace("Hedging read to " + hedge);
+            TimedRead second = new TimedRead(hedge, reader, trace != null);
+            reads.add(second);
+            futures.add(service.submit(second));
+         }
+
+         int pending = futures.size();
+         while (true)
+         {
+            if (done == null)
+               done = service.take();
+            pending--;
+            try
+            {
+               List<byte[]> entries = done.get();
+               OpTrace winner = reads.get(futures.indexOf(done)).trace;
+               if (trace != null && winner != null)
+                  trace.add(winner);
+               return entries;
+            }
+            catch (ExecutionException e)
+            {
+               if (pending == 0)
+                  throw e.getCause();
+               done = null;
+            }
+         }
+      }
+      finally
+      {
+         for (Future<List<byte[]>> future : futures)
+            future.cancel(false);
+         for (TimedRead read : reads)
+            read.abort();
+      }
+   }
+
+   /**
+    * Get the replica keyed operations on the key are routed to.
+    * <p/>
+    * The endpoints are the nodes' listen addresses, as reported by describe_ring, not their rpc addresses.
+    * Token aware routing therefore expects the rpc service to be reachable on the listen address,
+    * e.g. with rpc_address matching listen_address; otherwise every replica is marked down
+    * and the keys go to the configured host.
+    *
+    * @param key the row key
+    * @return the replica's endpoint, or null if they go to the configured host
+    */
+   protected String getEndpoint(byte[] key)
+   {
+      TokenRing current = ring;
+      if (current == null)
+         return null;
+
+      List<String> endpoints = current.getEndpoints(key);
+      if (endpoints == null || endpoints.isEmpty())
+         return null;
+
+      return endpoints.get(0);
+   }
+
+   private ClientConnection getReplicaConnection(byte[] key)
+   {
+      String endpoint = getEndpoint(key);
+      if (endpoint == null)
+         return null;
+
+      Long downUntil = downReplicas.get(endpoint);
+      if (downUntil != null)
+      {
+         if (System.currentTimeMillis() < downUntil)
+            return null;
+         downReplicas.remove(endpoint, downUntil);
+      }
+
+      ClientConnection rc = replicaConnections.get(endpoint);
+      if (rc == null)
+      {
+         rc = new ClientConnection(endpoint, port, keyspace, socketTimeout);
+         ClientConnection previous = replicaConnections.putIfAbsent(endpoint, rc);
+         if (previous != null)
+            rc = previous;
+      }
+      return rc;
+   }
+
+   /**
+    * Refresh our view of the token ring.
+    */
+   protected void refreshRing()
+   {
+      try
+      {
+         TokenRing tr = execute(new ClientExecutor<TokenRing>()
+         {
+            public TokenRing execute(Cassandra.Client client) throws Throwable
+            {
+               return TokenRing.create(client.describe_partitioner(), client.describe_ring(keyspace));
+            }
+         });
+         if (tr == null && log.isDebugEnabled())
+            log.debug("Partitioner not supported, token aware routing is disabled.");
+         ring = tr;
+         // give replicas marked down another chance against the new ring
+         downReplicas.clear();
+      }
+      catch (Throwable t)
+      {
+         log.debug("Cannot refresh token ring.", t);
+      }
+   }
+
+   public String getHost()
+   {
+      return host;
+   }
+
+   public int getPort()
+   {
+      return port;
+   }
+
+   public String getKeyspace()
+   {
+      return keyspace;
+   }
+
+   public void setHedgeHosts(String hedgeHosts)
+   {
+      this.hedgeHosts = hedgeHosts;
+   }
+
+   public void setHedgePercentile(double hedgePercentile)
+   {
+      this.hedgePercentile = hedgePercentile;
+   }
+
+   public void setHedgeBudget(double hedgeBudget)
+   {
+      this.hedgeBudget = hedgeBudget;
+   }
+
+   public void setHedgeMinDelay(long hedgeMinDelay)
+   {
+      this.hedgeMinDelay = hedgeMinDelay;
+   }
+
+   public void setTokenAware(boolean tokenAware)
+   {
+      this.tokenAware = tokenAware;
+   }
+
+   public void setRingRefreshInterval(long ringRefreshInterval)
+   {
+      this.ringRefreshInterval = ringRefreshInterval;
+   }
+
+   public void setSocketTimeout(int socketTimeout)
+   {
+      this.socketTimeout = socketTimeout;
+   }
+
+   private class TimedRead implements Callable<List<byte[]>>
+   {
+      private final ClientConnection current;
+      private final ClientExecutor<List<byte[]>> reader;
+      private final boolean traced;
+      private OpTrace trace;
+      private long start;
+      private boolean running;
+      private boolean aborted;
+
+      private TimedRead(ClientConnection current, ClientExecutor<List<byte[]>> reader, boolean traced)
+      {
+         this.current = current;
+         this.reader = reader;
+         this.traced = traced;
+      }
+
+      public List<byte[]> call() throws Exception
+      {
+         start = System.nanoTime();
+         OpTrace temp = traced ? OpTrace.begin("read " + current) : null;
+         try
+         {
+            List<byte[]> entries = current.execute(new ClientExecutor<List<byte[]>>()
+            {
+               public List<byte[]> execute(Cassandra.Client client) throws Throwable
+               {
+                  // only flagged while we own the connection, so abort never hits another operation
+                  synchronized (TimedRead.this)
+                  {
+                     if (aborted)
+                        throw new CancellationException("Read aborted");
+                     running = true;
+                  }
+                  try
+                  {
+                     return reader.execute(client);
+                  }
+                  finally
+                  {
+                     synchronized (TimedRead.this)
+                     {
+                        running = false;
+                     }
+                  }
+               }
+            });
+            synchronized (this)
+            {
+               // an aborted read was already recorded
+               if (aborted == false)
+                  hedgePolicy.record(System.nanoTime() - start);
+            }
+            return entries;
+         }
+         catch (Exception e)
+         {
+            throw e;
+         }
+         catch (Throwable t)
+         {
+            throw new RuntimeException(t);
+         }
+         finally
+         {
+            if (temp != null)
+            {
+               temp.end();
+               // published to the caller by the completion of the future
+               trace = temp;
+            }
+         }
+      }
+
+      /**
+       * Abort the read; if it is in progress, its transport is closed.
+       * The time it took so far is recorded as a lower bound of its latency,
+       * otherwise the slow reads we hedge would drop out of the percentile.
+       */
+      private synchronized void abort()
+      {
+         if (aborted)
+            return;
+         aborted = true;
+         if (running)
+         {
+            hedgePolicy.record(System.nanoTime() - start);
+            current.abort();
+         }
+      }
+   }
+}
@@ -0,0 +1,177 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Single Cassandra connection.
+ * <p/>
+ * The Thrift client is not thread safe, hence the access is serialized.
+ * A broken connection is re-opened on next use, until the connection is closed.
+ * Socket reads time out, so a dead host cannot keep the connection locked forever.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class ClientConnection
+{
+   /** The default socket timeout in milliseconds */
+   public static final int DEFAULT_TIMEOUT = 10000;
+
+   private final String host;
+   private final int port;
+   private final String keyspace;
+   private final int timeout;
+
+   private volatile TTransport transport;
+   private Cassandra.Client client;
+   private boolean closed;
+
+   public ClientConnection(String host, int port, String keyspace)
+   {
+      this(host, port, keyspace, DEFAULT_TIMEOUT);
+   }
+
+   /**
+    * @param host the host
+    * @param port the port
+    * @param keyspace the keyspace, null if none should be set
+    * @param timeout the socket timeout in milliseconds, 0 means none
+    */
+   public ClientConnection(String host, int port, String keyspace, int timeout)
+   {
+      if (host == null)
+         throw new IllegalArgumentException("Null host");
+      if (timeout < 0)
+         throw new IllegalArgumentException("Negative timeout: " + timeout);
+      this.host = host;
+      this.port = port;
+      this.keyspace = keyspace;
+      this.timeout = timeout;
+   }
+
+   /**
+    * Open the connection, if not already open.
+    *
+    * @throws Exception for any error
+    */
+   public synchronized void open() throws Exception
+   {
+      if (closed)
+         throw new IllegalStateException("Connection to " + this + " is closed");
+      if (client != null)
+         return;
+
+      TSocket socket = new TSocket(host, port, timeout);  //new default in 0.7 is framed transport
+      TFramedTransport tf = new TFramedTransport(new TimingTransport(socket));
+      TProtocol proto = new TBinaryProtocol(tf);
+      Cassandra.Client temp = new Cassandra.Client(proto);
+      tf.open();
+      try
+      {
+         if (keyspace != null)
+            temp.set_keyspace(keyspace);
+      }
+      catch (Exception e)
+      {
+         tf.close();
+         throw e;
+      }
+      transport = tf;
+      client = temp;
+   }
+
+   /**
+    * Execute action on this connection's client.
+    *
+    * @param executor the executor
+    * @return op result
+    * @throws Throwable for any error
+    */
+   public synchronized <T> T execute(ClientExecutor<T> executor) throws Throwable
+   {
+      open();
+      try
+      {
+         return executor.execute(client);
+      }
+      catch (TTransportException e)
+      {
+         reset();
+         throw e;
+      }
+   }
+
+   /**
+    * Close the connection for good.
+    */
+   public synchronized void close()
+   {
+      closed = true;
+      reset();
+   }
+
+   /**
+    * Close the transport of the operation in progress, if any, without waiting for it.
+    * The operation fails with a transport error, which releases the connection;
+    * it is re-opened on next use.
+    */
+   public void abort()
+   {
+      TTransport temp = transport;
+      if (temp != null)
+         temp.close();
+   }
+
+   private void reset()
+   {
+      TTransport temp = transport;
+      transport = null;
+      client = null;
+      if (temp != null)
+         temp.close();
+   }
+
+   public String getHost()
+   {
+      return host;
+   }
+
+   public int getPort()
+   {
+      return port;
+   }
+
+   @Override
+   public String toString()
+   {
+      return host + ":" + port;
+   }
+}
@@ -0,0 +1,132 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jgroups.protocols.PingData;
+import org.jgroups.util.Util;
+
+/**
+ * Bounded LRU cache of decoded ping data, keyed by the raw value.
+ * <p/>
+ * Entries are mostly unchanged between discovery rounds,
+ * so the same ping data instance is returned instead of decoding it again.
+ * Cached instances are shared, hence must not be modified.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DecodeCache
+{
+   private final Map<Key, PingData> cache;
+
+   public DecodeCache(final int size)
+   {
+      if (size < 1)
+         throw new IllegalArgumentException("Size must be positive: " + size);
+
+      cache = new LinkedHashMap<Key, PingData>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         protected boolean removeEldestEntry(Map.Entry<Key, PingData> eldest)
+         {
+            return size() > size;
+         }
+      };
+   }
+
+   /**
+    * Get the ping data, decoding it only if not cached.
+    *
+    * @param bytes the raw value
+    * @return the ping data
+    * @throws Exception for any decoding error
+    */
+   public PingData decode(byte[] bytes) throws Exception
+   {
+      Key key = new Key(bytes);
+      synchronized (cache)
+      {
+         PingData data = cache.get(key);
+         if (data != null)
+            return data;
+      }
+
+      PingData data = (PingData) Util.streamableFromByteBuffer(PingData.class, bytes);
+      synchronized (cache)
+      {
+         cache.put(key, data);
+      }
+      return data;
+   }
+
+   /**
+    * Drop all cached entries.
+    */
+   public void clear()
+   {
+      synchronized (cache)
+      {
+         cache.clear();
+      }
+   }
+
+   public int size()
+   {
+      synchronized (cache)
+      {
+         return cache.size();
+      }
+   }
+
+   private static class Key
+   {
+      private final byte[] bytes;
+      private final int hash;
+
+      private Key(byte[] bytes)
+      {
+         this.bytes = bytes;
+         this.hash = 31 * Arrays.hashCode(bytes) + bytes.length;
+      }
+
+      public int hashCode()
+      {
+         return hash;
+      }
+
+      public boolean equals(Object obj)
+      {
+         if (obj instanceof Key == false)
+            return false;
+
+         Key other = (Key) obj;
+         // cheap checks first, a hash collision must not return another member's data
+         return hash == other.hash && bytes.length == other.bytes.length && Arrays.equals(bytes, other.bytes);
+      }
+   }
+}
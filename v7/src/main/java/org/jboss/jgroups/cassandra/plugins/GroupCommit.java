@@ -0,0 +1,210 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Mutation;
+
+/**
+ * Group commit of mutations.
+ * <p/>
+ * The first writer flushes; writers arriving while a flush is in progress
+ * are collected into the next batch, which one of them flushes once the current flush is done.
+ * A leader only flushes the batch it joined, so no writer waits longer than one extra flush.
+ * <p/>
+ * A batch is split by the replica its keys are routed to, one batch_mutate per replica,
+ * so grouped writes keep token aware routing.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class GroupCommit
+{
+   private final CassandraBackend backend;
+   private final Object lock = new Object();
+   private Batch current = new Batch();
+   private boolean flushing;
+
+   public GroupCommit(CassandraBackend backend)
+   {
+      this.backend = backend;
+   }
+
+   /**
+    * Submit mutation and wait until it is written.
+    *
+    * @param key the row key
+    * @param columnFamily the column family
+    * @param mutation the mutation
+    * @throws Throwable for any error
+    */
+   public void submit(byte[] key, String columnFamily, Mutation mutation) throws Throwable
+   {
+      Batch batch;
+      boolean leader = false;
+      boolean interrupted = false;
+      synchronized (lock)
+      {
+         batch = current;
+         batch.add(key, columnFamily, mutation);
+         // wait until another writer flushed our batch, or it's our turn to flush it
+         while (flushing && batch.isDone() == false)
+         {
+            try
+            {
+               lock.wait();
+            }
+            catch (InterruptedException e)
+            {
+               // the batch still needs a leader
+               interrupted = true;
+            }
+         }
+         if (batch.isDone() == false)
+         {
+            leader = true;
+            flushing = true;
+            current = new Batch();
+         }
+      }
+
+      try
+      {
+         if (leader)
+         {
+            try
+            {
+               flush(batch);
+            }
+            finally
+            {
+               synchronized (lock)
+               {
+                  flushing = false;
+                  lock.notifyAll();
+               }
+            }
+         }
+         batch.await();
+      }
+      finally
+      {
+         if (interrupted)
+            Thread.currentThread().interrupt();
+      }
+   }
+
+   private void flush(Batch batch)
+   {
+      try
+      {
+         Map<String, Map<ByteBuffer, Map<String, List<Mutation>>>> byEndpoint = new HashMap<String, Map<ByteBuffer, Map<String, List<Mutation>>>>();
+         for (Map.Entry<ByteBuffer, Map<String, List<Mutation>>> entry : batch.mutations.entrySet())
+         {
+            String endpoint = backend.getEndpoint(entry.getKey().array());
+            Map<ByteBuffer, Map<String, List<Mutation>>> group = byEndpoint.get(endpoint);
+            if (group == null)
+            {
+               group = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+               byEndpoint.put(endpoint, group);
+            }
+            group.put(entry.getKey(), entry.getValue());
+         }
+
+         for (final Map<ByteBuffer, Map<String, List<Mutation>>> group : byEndpoint.values())
+         {
+            try
+            {
+               byte[] key = group.keySet().iterator().next().array();
+               backend.execute(key, new ClientExecutor<Object>()
+               {
+                  public Object execute(Cassandra.Client client) throws Throwable
+                  {
+                     client.batch_mutate(group, ConsistencyLevel.ONE);
+                     return null;
+                  }
+               });
+            }
+            catch (Throwable t)
+            {
+               // keep writing the other replicas' groups
+               if (batch.error == null)
+                  batch.error = t;
+            }
+         }
+      }
+      catch (Throwable t)
+      {
+         batch.error = t;
+      }
+      finally
+      {
+         batch.done.countDown();
+      }
+   }
+
+   private static class Batch
+   {
+      private final Map<ByteBuffer, Map<String, List<Mutation>>> mutations = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+      private final CountDownLatch done = new CountDownLatch(1);
+      private volatile Throwable error;
+
+      private void add(byte[] key, String columnFamily, Mutation mutation)
+      {
+         ByteBuffer bb = ByteBuffer.wrap(key);
+         Map<String, List<Mutation>> byCf = mutations.get(bb);
+         if (byCf == null)
+         {
+            byCf = new HashMap<String, List<Mutation>>();
+            mutations.put(bb, byCf);
+         }
+         List<Mutation> list = byCf.get(columnFamily);
+         if (list == null)
+         {
+            list = new ArrayList<Mutation>();
+            byCf.put(columnFamily, list);
+         }
+         list.add(mutation);
+      }
+
+      private boolean isDone()
+      {
+         return done.getCount() == 0;
+      }
+
+      private void await() throws Throwable
+      {
+         done.await();
+         if (error != null)
+            throw error;
+      }
+   }
+}
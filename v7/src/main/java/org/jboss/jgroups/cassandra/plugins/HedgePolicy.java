@@ -0,0 +1,124 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.Arrays;
+
+/**
+ * Decides when a read should be hedged.
+ * <p/>
+ * The hedge delay is the configured percentile of recent read latencies.
+ * Every read earns a fraction of a hedge, so hedged reads never exceed
+ * the given ratio of all reads; with ratio 1 the read load can at most double.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class HedgePolicy
+{
+   private static final double MAX_CREDIT = 10;
+
+   private final double percentile;
+   private final double ratio;
+   private final long minDelay;
+   private final long[] samples;
+
+   private int count;
+   private int next;
+   private double credit;
+
+   /**
+    * Create hedge policy.
+    *
+    * @param percentile the latency percentile, e.g. 95
+    * @param ratio max ratio of hedged reads, between 0 and 1
+    * @param minDelay the min hedge delay in nanoseconds
+    * @param window the number of recent latencies to track
+    */
+   public HedgePolicy(double percentile, double ratio, long minDelay, int window)
+   {
+      if (percentile <= 0 || percentile > 100)
+         throw new IllegalArgumentException("Percentile must be in (0, 100]: " + percentile);
+      if (ratio < 0 || ratio > 1)
+         throw new IllegalArgumentException("Ratio must be in [0, 1]: " + ratio);
+      if (window <= 0)
+         throw new IllegalArgumentException("Window must be positive: " + window);
+
+      this.percentile = percentile;
+      this.ratio = ratio;
+      this.minDelay = minDelay;
+      this.samples = new long[window];
+   }
+
+   /**
+    * Record the latency of a completed read.
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public synchronized void record(long nanos)
+   {
+      samples[next] = nanos;
+      next = (next + 1) % samples.length;
+      if (count < samples.length)
+         count++;
+   }
+
+   /**
+    * Get the current hedge delay.
+    *
+    * @return the delay in nanoseconds
+    */
+   public synchronized long delay()
+   {
+      if (count == 0)
+         return minDelay;
+
+      long[] sorted = new long[count];
+      System.arraycopy(samples, 0, sorted, 0, count);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * count) - 1;
+      return Math.max(minDelay, sorted[Math.max(0, index)]);
+   }
+
+   /**
+    * A read was issued; earn part of a hedge.
+    */
+   public synchronized void onRead()
+   {
+      credit = Math.min(MAX_CREDIT, credit + ratio);
+   }
+
+   /**
+    * Try to spend a hedge.
+    *
+    * @return true if the read may be hedged
+    */
+   public synchronized boolean tryHedge()
+   {
+      if (credit < 1)
+         return false;
+
+      credit -= 1;
+      return true;
+   }
+}
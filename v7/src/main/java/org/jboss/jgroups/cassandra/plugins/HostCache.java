@@ -0,0 +1,271 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Host local membership cache, shared by all JVMs of a host through a memory mapped file.
+ * <p/>
+ * The JVM holding the lease file lock refreshes the cluster's entries from Cassandra and publishes them here,
+ * all other JVMs read the mapped entries instead of Cassandra, as long as they are fresh enough.
+ * Writes are guarded by a sequence number, odd while a write is in progress,
+ * so readers never block; they retry if the number changed while copying.
+ * Plain stores to the mapping are not ordered between processes, so the record also carries a CRC32
+ * which the reader verifies; a torn copy is retried like a concurrent write.
+ * <p/>
+ * Layout: sequence (long), checksum (long), publish time (long), length (int),
+ * entries as written by {@link MembershipSnapshot}. The checksum covers publish time, length and entries.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class HostCache
+{
+   private static final int SEQUENCE = 0;
+   private static final int CHECKSUM = 8;
+   private static final int TIMESTAMP = 16;
+   private static final int LENGTH = 24;
+   private static final int HEADER = 28;
+   private static final int READ_ATTEMPTS = 10;
+
+   private final File file;
+   private final int capacity;
+   private final RandomAccessFile data;
+   private final RandomAccessFile leaseFile;
+   private final MappedByteBuffer buffer;
+   private FileLock lease;
+   private boolean closed;
+
+   private HostCache(File file, int capacity) throws IOException
+   {
+      this.file = file;
+      this.capacity = capacity;
+
+      File dir = file.getParentFile();
+      if (dir != null && dir.exists() == false && dir.mkdirs() == false && dir.exists() == false)
+         throw new IOException("Cannot create host cache dir: " + dir);
+
+      data = new RandomAccessFile(file, "rw");
+      try
+      {
+         // a new file is zero filled, i.e. sequence 0, nothing published yet
+         if (data.length() < capacity)
+            data.setLength(capacity);
+         buffer = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+         leaseFile = new RandomAccessFile(new File(dir, file.getName() + ".lease"), "rw");
+      }
+      catch (IOException e)
+      {
+         data.close();
+         throw e;
+      }
+   }
+
+   /**
+    * Open cluster's host cache.
+    *
+    * @param dir the cache directory
+    * @param keyspace the keyspace
+    * @param clustername the cluster name
+    * @param capacity the file size, must be the same for all JVMs
+    * @return the host cache
+    * @throws IOException for any I/O error
+    */
+   public static HostCache open(File dir, String keyspace, String clustername, int capacity) throws IOException
+   {
+      if (capacity <= HEADER)
+         throw new IllegalArgumentException("Capacity too small: " + capacity);
+
+      return new HostCache(new File(dir, MembershipSnapshot.sanitize(keyspace + "-" + clustername) + ".cache"), capacity);
+   }
+
+   /**
+    * Do we hold the lease, i.e. refresh the entries from Cassandra.
+    * If nobody holds it, we try to take it over.
+    *
+    * @return true if we hold the lease
+    */
+   public synchronized boolean isLeaseHolder()
+   {
+      if (closed)
+         return false;
+      if (lease != null)
+         return true;
+
+      try
+      {
+         lease = leaseFile.getChannel().tryLock();
+      }
+      catch (OverlappingFileLockException e)
+      {
+         // another ping of this JVM holds it
+         return false;
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+      return lease != null;
+   }
+
+   /**
+    * Publish entries, only done by the lease holder.
+    *
+    * @param entries the raw entries
+    * @return true if published, false if too big
+    * @throws IOException for any I/O error
+    */
+   public synchronized boolean publish(List<byte[]> entries) throws IOException
+   {
+      if (closed)
+         return false;
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(baos);
+      MembershipSnapshot.writeEntries(out, entries);
+      out.flush();
+      byte[] bytes = baos.toByteArray();
+      if (HEADER + bytes.length > capacity)
+         return false;
+
+      ByteBuffer record = ByteBuffer.allocate(HEADER - TIMESTAMP + bytes.length);
+      record.putLong(System.currentTimeMillis());
+      record.putInt(bytes.length);
+      record.put(bytes);
+      CRC32 crc = new CRC32();
+      crc.update(record.array());
+
+      // a holder might have died in the middle of a write, leaving an odd sequence
+      long next = (buffer.getLong(SEQUENCE) | 1L) + 1;
+      buffer.putLong(SEQUENCE, next - 1);
+      buffer.putLong(CHECKSUM, crc.getValue());
+      ByteBuffer target = buffer.duplicate();
+      target.position(TIMESTAMP);
+      target.put(record.array());
+      buffer.putLong(SEQUENCE, next);
+      return true;
+   }
+
+   /**
+    * Read the published entries.
+    *
+    * @param maxAge max age in milliseconds, 0 means no limit
+    * @return the raw entries, or null if nothing usable was published
+    */
+   public List<byte[]> read(long maxAge)
+   {
+      for (int i = 0; i < READ_ATTEMPTS; i++)
+      {
+         long before = buffer.getLong(SEQUENCE);
+         if (before == 0)
+            return null;
+         if ((before & 1L) != 0)
+         {
+            Thread.yield();
+            continue;
+         }
+
+         long checksum = buffer.getLong(CHECKSUM);
+         int length = buffer.getInt(LENGTH);
+         if (length < 0 || HEADER + length > capacity)
+            continue;
+         byte[] record = new byte[HEADER - TIMESTAMP + length];
+         ByteBuffer source = buffer.duplicate();
+         source.position(TIMESTAMP);
+         source.get(record);
+
+         if (buffer.getLong(SEQUENCE) != before)
+            continue;
+         CRC32 crc = new CRC32();
+         crc.update(record);
+         if (crc.getValue() != checksum)
+            continue;
+
+         ByteBuffer copy = ByteBuffer.wrap(record);
+         long timestamp = copy.getLong();
+         if (maxAge > 0 && System.currentTimeMillis() - timestamp > maxAge)
+            return null;
+
+         byte[] bytes = new byte[length];
+         copy.position(HEADER - TIMESTAMP);
+         copy.get(bytes);
+         try
+         {
+            return MembershipSnapshot.readEntries(bytes);
+         }
+         catch (IOException e)
+         {
+            return null;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Release the lease and close the files.
+    * The mapping itself is released once garbage collected.
+    */
+   public synchronized void close()
+   {
+      closed = true;
+      try
+      {
+         if (lease != null)
+            lease.release();
+      }
+      catch (IOException ignored)
+      {
+      }
+      lease = null;
+      try
+      {
+         leaseFile.close();
+      }
+      catch (IOException ignored)
+      {
+      }
+      try
+      {
+         data.close();
+      }
+      catch (IOException ignored)
+      {
+      }
+   }
+
+   public File getFile()
+   {
+      return file;
+   }
+}
@@ -0,0 +1,119 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.Random;
+
+/**
+ * Delays between lease refreshes.
+ * <p/>
+ * The first refresh lands anywhere within the interval, so nodes started together
+ * do not stay phase aligned. Every delay is jittered; while membership is stable the
+ * interval is stretched up to the max, after a view change it drops back to the base.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class LeaseSchedule
+{
+   private final long interval;
+   private final long maxInterval;
+   private final double stretch;
+   private final double jitter;
+   private final Random random;
+
+   private long current;
+   private boolean changed;
+
+   /**
+    * Create lease schedule.
+    *
+    * @param interval the base interval
+    * @param maxInterval the max interval while membership is stable
+    * @param stretch the factor by which a stable interval grows
+    * @param jitter the max relative deviation of a delay, between 0 and 1
+    * @param random the random
+    */
+   public LeaseSchedule(long interval, long maxInterval, double stretch, double jitter, Random random)
+   {
+      if (interval <= 0)
+         throw new IllegalArgumentException("Interval must be positive: " + interval);
+      if (stretch < 1)
+         throw new IllegalArgumentException("Stretch must be at least 1: " + stretch);
+      if (jitter < 0 || jitter > 1)
+         throw new IllegalArgumentException("Jitter must be in [0, 1]: " + jitter);
+
+      this.interval = interval;
+      this.maxInterval = Math.max(interval, maxInterval);
+      this.stretch = stretch;
+      this.jitter = jitter;
+      this.random = random;
+      this.current = interval;
+   }
+
+   /**
+    * Delay of the first refresh.
+    *
+    * @return random delay within the base interval
+    */
+   public synchronized long first()
+   {
+      return (long) (random.nextDouble() * interval);
+   }
+
+   /**
+    * Delay of the next refresh.
+    *
+    * @return the jittered delay
+    */
+   public synchronized long next()
+   {
+      if (changed)
+      {
+         current = interval;
+         changed = false;
+      }
+      else
+      {
+         current = Math.min(maxInterval, (long) (current * stretch));
+      }
+      return jitter(current);
+   }
+
+   /**
+    * The view changed; go back to the base interval.
+    *
+    * @return the jittered delay of the next refresh
+    */
+   public synchronized long viewChanged()
+   {
+      changed = true;
+      current = interval;
+      return jitter(current);
+   }
+
+   private long jitter(long delay)
+   {
+      return Math.max(0, (long) (delay * (1 + jitter * (2 * random.nextDouble() - 1))));
+   }
+}
@@ -0,0 +1,259 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Last known membership of a cluster, persisted to a local file.
+ * <p/>
+ * The entries are the raw column values as read from Cassandra, so no re-serialization is needed.
+ * The file is replaced atomically; a reader either sees the previous or the new snapshot.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class MembershipSnapshot
+{
+   private static final int MAGIC = 0x4a435053;
+   private static final byte VERSION = 1;
+   private static final int PREFIX = 9; // magic, version, size
+
+   private final File file;
+   private List<byte[]> last;
+
+   public MembershipSnapshot(File file)
+   {
+      if (file == null)
+         throw new IllegalArgumentException("Null file");
+      this.file = file;
+   }
+
+   /**
+    * Create snapshot for cluster.
+    *
+    * @param dir the snapshot directory
+    * @param keyspace the keyspace
+    * @param clustername the cluster name
+    * @return new snapshot
+    */
+   public static MembershipSnapshot create(File dir, String keyspace, String clustername)
+   {
+      return new MembershipSnapshot(new File(dir, sanitize(keyspace + "-" + clustername) + ".snapshot"));
+   }
+
+   static String sanitize(String name)
+   {
+      StringBuilder builder = new StringBuilder(name.length());
+      for (int i = 0; i < name.length(); i++)
+      {
+         char ch = name.charAt(i);
+         if (Character.isLetterOrDigit(ch) || ch == '-' || ch == '.')
+            builder.append(ch);
+         else
+            builder.append('_');
+      }
+      return builder.toString();
+   }
+
+   /**
+    * Read the snapshot.
+    *
+    * @return the raw entries, or null if there is no usable snapshot
+    */
+   public synchronized List<byte[]> read()
+   {
+      if (file.exists() == false)
+         return null;
+
+      try
+      {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         try
+         {
+            List<byte[]> entries = readEntries(in, file.length());
+            last = entries;
+            return entries;
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (IOException e)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Write the snapshot, unless it is the same as the last one.
+    *
+    * @param entries the raw entries
+    * @return true if the file was written, false if nothing changed
+    * @throws IOException for any I/O error
+    */
+   public synchronized boolean write(List<byte[]> entries) throws IOException
+   {
+      if (same(last, entries))
+         return false;
+
+      File dir = file.getParentFile();
+      if (dir != null && dir.exists() == false && dir.mkdirs() == false)
+         throw new IOException("Cannot create snapshot dir: " + dir);
+
+      File tmp = new File(dir, file.getName() + ".tmp");
+      FileOutputStream fos = new FileOutputStream(tmp);
+      try
+      {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+         writeEntries(out, entries);
+         out.flush();
+         fos.getFD().sync();
+      }
+      finally
+      {
+         fos.close();
+      }
+
+      // File::renameTo cannot replace an existing file on every platform
+      if (tmp.renameTo(file) == false && (file.delete() == false || tmp.renameTo(file) == false))
+         throw new IOException("Cannot replace snapshot: " + file);
+
+      last = new ArrayList<byte[]>(entries);
+      return true;
+   }
+
+   /**
+    * Delete the snapshot.
+    */
+   public synchronized void delete()
+   {
+      last = null;
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+   }
+
+   public File getFile()
+   {
+      return file;
+   }
+
+   /**
+    * Write entries in compact binary form.
+    *
+    * @param out the output
+    * @param entries the raw entries
+    * @throws IOException for any I/O error
+    */
+   public static void writeEntries(DataOutputStream out, List<byte[]> entries) throws IOException
+   {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      out.writeInt(entries.size());
+      for (byte[] entry : entries)
+      {
+         out.writeInt(entry.length);
+         out.write(entry);
+      }
+   }
+
+   /**
+    * Read entries written by {@link #writeEntries(java.io.DataOutputStream, java.util.List)}.
+    *
+    * @param bytes the serialized entries
+    * @return the raw entries
+    * @throws IOException for invalid content
+    */
+   public static List<byte[]> readEntries(byte[] bytes) throws IOException
+   {
+      return readEntries(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+   }
+
+   /**
+    * Read entries written by {@link #writeEntries(java.io.DataOutputStream, java.util.List)}.
+    * <p/>
+    * Sizes and lengths are checked against the available bytes,
+    * so a corrupt or truncated input fails instead of allocating huge arrays.
+    *
+    * @param in the input
+    * @param limit the number of bytes available in the input
+    * @return the raw entries
+    * @throws IOException for any I/O error or invalid content
+    */
+   public static List<byte[]> readEntries(DataInputStream in, long limit) throws IOException
+   {
+      if (limit < PREFIX)
+         throw new IOException("Truncated membership snapshot");
+      if (in.readInt() != MAGIC)
+         throw new IOException("Not a membership snapshot");
+      if (in.readByte() != VERSION)
+         throw new IOException("Unsupported snapshot version");
+
+      long remaining = limit - PREFIX;
+      int size = in.readInt();
+      // every entry takes at least its length
+      if (size < 0 || size > remaining / 4)
+         throw new IOException("Invalid snapshot size: " + size);
+
+      List<byte[]> entries = new ArrayList<byte[]>(size);
+      for (int i = 0; i < size; i++)
+      {
+         if (remaining < 4)
+            throw new IOException("Truncated membership snapshot");
+         int length = in.readInt();
+         remaining -= 4;
+         if (length < 0 || length > remaining)
+            throw new IOException("Invalid entry length: " + length);
+         byte[] entry = new byte[length];
+         in.readFully(entry);
+         remaining -= length;
+         entries.add(entry);
+      }
+      return entries;
+   }
+
+   private static boolean same(List<byte[]> previous, List<byte[]> current)
+   {
+      if (previous == null || previous.size() != current.size())
+         return false;
+
+      for (int i = 0; i < current.size(); i++)
+      {
+         if (Arrays.equals(previous.get(i), current.get(i)) == false)
+            return false;
+      }
+      return true;
+   }
+}
@@ -0,0 +1,187 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-phase timing of a single operation.
+ * <p/>
+ * The trace is bound to the current thread between {@link #begin(String)} and {@link #end()};
+ * the transport and the callers add connect, send, server wait, receive and decode times.
+ * Work done on other threads is traced separately and {@link #add(OpTrace) added} once it completed.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class OpTrace
+{
+   private static final ThreadLocal<OpTrace> current = new ThreadLocal<OpTrace>();
+
+   private final String operation;
+   private final long start = System.nanoTime();
+   private long elapsed;
+
+   private long connect;
+   private long send;
+   private long wait;
+   private long receive;
+   private long decode;
+   private long bytesSent;
+   private long bytesReceived;
+   private int entries;
+   private boolean decodedSet;
+   private boolean awaitingResponse;
+
+   private OpTrace(String operation)
+   {
+      this.operation = operation;
+   }
+
+   /**
+    * Start tracing an operation on the current thread.
+    *
+    * @param operation the operation description
+    * @return new trace
+    */
+   public static OpTrace begin(String operation)
+   {
+      OpTrace trace = new OpTrace(operation);
+      current.set(trace);
+      return trace;
+   }
+
+   /**
+    * Get the trace of the current thread.
+    *
+    * @return the trace or null if none
+    */
+   public static OpTrace current()
+   {
+      return current.get();
+   }
+
+   /**
+    * Stop tracing.
+    *
+    * @return the elapsed time in nanoseconds
+    */
+   public long end()
+   {
+      current.remove();
+      elapsed = System.nanoTime() - start;
+      return elapsed;
+   }
+
+   public long getElapsed()
+   {
+      return elapsed;
+   }
+
+   void connected(long nanos)
+   {
+      connect += nanos;
+   }
+
+   void written(int bytes, long nanos)
+   {
+      bytesSent += bytes;
+      send += nanos;
+   }
+
+   void flushed(long nanos)
+   {
+      send += nanos;
+      awaitingResponse = true;
+   }
+
+   void read(int bytes, long nanos)
+   {
+      bytesReceived += Math.max(0, bytes);
+      // the first read after a request blocks until the server answers
+      if (awaitingResponse)
+      {
+         wait += nanos;
+         awaitingResponse = false;
+      }
+      else
+      {
+         receive += nanos;
+      }
+   }
+
+   /**
+    * Add the phases of a trace taken on another thread, e.g. a read run by an executor.
+    * The other trace must be complete, i.e. no longer updated.
+    *
+    * @param other the other trace
+    */
+   public void add(OpTrace other)
+   {
+      connect += other.connect;
+      send += other.send;
+      wait += other.wait;
+      receive += other.receive;
+      decode += other.decode;
+      bytesSent += other.bytesSent;
+      bytesReceived += other.bytesReceived;
+      entries += other.entries;
+      decodedSet |= other.decodedSet;
+   }
+
+   /**
+    * Record decoding.
+    *
+    * @param count the number of decoded entries
+    * @param nanos the decode time
+    */
+   public void decoded(int count, long nanos)
+   {
+      entries += count;
+      decodedSet = true;
+      decode += nanos;
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder builder = new StringBuilder();
+      builder.append(operation).append(" took ").append(millis(elapsed)).append(" ms");
+      builder.append(" [connect=").append(millis(connect));
+      builder.append(", send=").append(millis(send));
+      builder.append(", server-wait=").append(millis(wait));
+      builder.append(", receive=").append(millis(receive));
+      builder.append(", decode=").append(millis(decode));
+      builder.append(", bytes-sent=").append(bytesSent);
+      builder.append(", bytes-received=").append(bytesReceived);
+      if (decodedSet)
+         builder.append(", entries=").append(entries);
+      builder.append("]");
+      return builder.toString();
+   }
+
+   private static String millis(long nanos)
+   {
+      return String.format("%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+   }
+}
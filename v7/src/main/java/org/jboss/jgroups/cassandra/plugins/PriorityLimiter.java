@@ -0,0 +1,136 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM-wide token bucket shared by all pings, with priority lanes.
+ * <p/>
+ * A token is only handed to a lane when no higher priority lane is waiting,
+ * so under contention discovery reads go first, then writes, then removes and sweeps.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PriorityLimiter
+{
+   /**
+    * Priority lanes, highest first.
+    */
+   public enum Lane
+   {
+      READ,
+      WRITE,
+      REMOVE
+   }
+
+   private static final long MIN_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+
+   private static PriorityLimiter instance;
+
+   private final double rate;
+   private final double burst;
+   private final int[] waiting = new int[Lane.values().length];
+   private double tokens;
+   private long last = System.nanoTime();
+
+   /**
+    * Create limiter.
+    *
+    * @param rate the ops per second, must be positive
+    * @param burst the max number of ops above the rate, at least 1
+    */
+   public PriorityLimiter(double rate, double burst)
+   {
+      if (rate <= 0)
+         throw new IllegalArgumentException("Rate must be positive: " + rate);
+
+      this.rate = rate;
+      this.burst = Math.max(1, burst);
+      this.tokens = this.burst;
+   }
+
+   /**
+    * Get the JVM-wide limiter; the first ping to ask for it sets its rate and burst.
+    *
+    * @param rate the ops per second
+    * @param burst the burst
+    * @return the shared limiter
+    */
+   public static synchronized PriorityLimiter getInstance(double rate, double burst)
+   {
+      if (instance == null)
+         instance = new PriorityLimiter(rate, burst);
+      return instance;
+   }
+
+   /**
+    * Wait for a token.
+    *
+    * @param lane the caller's lane
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public synchronized void acquire(Lane lane) throws InterruptedException
+   {
+      int index = lane.ordinal();
+      waiting[index]++;
+      try
+      {
+         while (true)
+         {
+            refill();
+            boolean yield = false;
+            for (int i = 0; i < index; i++)
+               yield |= waiting[i] > 0;
+
+            if (tokens >= 1 && yield == false)
+            {
+               tokens -= 1;
+               return;
+            }
+
+            // without a token wait for the next one; when yielding, we are woken up once the higher lane got its token
+            long wait = (tokens >= 1) ? MIN_WAIT : Math.max(MIN_WAIT, (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1)));
+            TimeUnit.NANOSECONDS.timedWait(this, wait);
+         }
+      }
+      finally
+      {
+         waiting[index]--;
+         notifyAll();
+      }
+   }
+
+   private void refill()
+   {
+      long now = System.nanoTime();
+      tokens = Math.min(burst, tokens + (now - last) * rate / TimeUnit.SECONDS.toNanos(1));
+      last = now;
+   }
+
+   public double getRate()
+   {
+      return rate;
+   }
+}
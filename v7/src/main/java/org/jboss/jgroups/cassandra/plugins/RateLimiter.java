@@ -0,0 +1,82 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces operations evenly to stay within an ops-per-second budget.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class RateLimiter
+{
+   private final long interval;
+   private long next;
+
+   /**
+    * Create rate limiter.
+    *
+    * @param opsPerSecond the budget, must be positive
+    */
+   public RateLimiter(double opsPerSecond)
+   {
+      if (opsPerSecond <= 0)
+         throw new IllegalArgumentException("Rate must be positive: " + opsPerSecond);
+
+      this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / opsPerSecond);
+      this.next = System.nanoTime();
+   }
+
+   /**
+    * Wait until the next operation may run.
+    *
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public void acquire() throws InterruptedException
+   {
+      acquire(1);
+   }
+
+   /**
+    * Wait until the next ops may run.
+    *
+    * @param ops the number of operations
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public void acquire(int ops) throws InterruptedException
+   {
+      long wait;
+      synchronized (this)
+      {
+         long now = System.nanoTime();
+         if (next - now < 0)
+            next = now;
+         wait = next - now;
+         next += interval * ops;
+      }
+      if (wait > 0)
+         TimeUnit.NANOSECONDS.sleep(wait);
+   }
+}
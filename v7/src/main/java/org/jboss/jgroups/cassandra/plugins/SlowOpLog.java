@@ -0,0 +1,103 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.logging.Log;
+
+/**
+ * Logs operations slower than a threshold.
+ * <p/>
+ * At most one operation is logged per interval, the others are only counted,
+ * so an outage cannot flood the log.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class SlowOpLog
+{
+   private final Log log;
+   private final long threshold;
+   private final long interval;
+
+   private long next = System.nanoTime();
+   private int suppressed;
+
+   /**
+    * Create slow op log.
+    *
+    * @param log the log
+    * @param threshold the threshold in milliseconds
+    * @param interval the min interval between two log entries in milliseconds
+    */
+   public SlowOpLog(Log log, long threshold, long interval)
+   {
+      if (log == null)
+         throw new IllegalArgumentException("Null log");
+      this.log = log;
+      this.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+      this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+   }
+
+   /**
+    * Start tracing an operation.
+    *
+    * @param operation the operation description
+    * @return the trace
+    */
+   public OpTrace begin(String operation)
+   {
+      return OpTrace.begin(operation);
+   }
+
+   /**
+    * End the trace and log it if it was slow.
+    *
+    * @param trace the trace, can be null
+    */
+   public void end(OpTrace trace)
+   {
+      if (trace == null || trace.end() < threshold)
+         return;
+
+      int skipped;
+      synchronized (this)
+      {
+         long now = System.nanoTime();
+         if (now - next < 0)
+         {
+            suppressed++;
+            return;
+         }
+         next = now + interval;
+         skipped = suppressed;
+         suppressed = 0;
+      }
+
+      if (skipped > 0)
+         log.warn("Slow operation: " + trace + ", " + skipped + " more slow operations not logged");
+      else
+         log.warn("Slow operation: " + trace);
+   }
+}
@@ -0,0 +1,98 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Transport which adds its I/O times and sizes to the current {@link OpTrace}.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TimingTransport extends TTransport
+{
+   private final TTransport delegate;
+
+   public TimingTransport(TTransport delegate)
+   {
+      if (delegate == null)
+         throw new IllegalArgumentException("Null delegate");
+      this.delegate = delegate;
+   }
+
+   public boolean isOpen()
+   {
+      return delegate.isOpen();
+   }
+
+   public void open() throws TTransportException
+   {
+      OpTrace trace = OpTrace.current();
+      long start = (trace != null) ? System.nanoTime() : 0;
+      delegate.open();
+      if (trace != null)
+         trace.connected(System.nanoTime() - start);
+   }
+
+   public void close()
+   {
+      delegate.close();
+   }
+
+   public int read(byte[] buf, int off, int len) throws TTransportException
+   {
+      OpTrace trace = OpTrace.current();
+      if (trace == null)
+         return delegate.read(buf, off, len);
+
+      long start = System.nanoTime();
+      int n = delegate.read(buf, off, len);
+      trace.read(n, System.nanoTime() - start);
+      return n;
+   }
+
+   public void write(byte[] buf, int off, int len) throws TTransportException
+   {
+      OpTrace trace = OpTrace.current();
+      if (trace == null)
+      {
+         delegate.write(buf, off, len);
+         return;
+      }
+
+      long start = System.nanoTime();
+      delegate.write(buf, off, len);
+      trace.written(len, System.nanoTime() - start);
+   }
+
+   public void flush() throws TTransportException
+   {
+      OpTrace trace = OpTrace.current();
+      long start = (trace != null) ? System.nanoTime() : 0;
+      delegate.flush();
+      if (trace != null)
+         trace.flushed(System.nanoTime() - start);
+   }
+}
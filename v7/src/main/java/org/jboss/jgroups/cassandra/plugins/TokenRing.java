@@ -0,0 +1,171 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.cassandra.thrift.TokenRange;
+
+/**
+ * Client side view of the Cassandra token ring.
+ * <p/>
+ * Maps a row key to the replicas owning it, as described by describe_ring.
+ * Only the partitioners whose tokens can be computed on the client are supported.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TokenRing
+{
+   private final TokenFactory factory;
+   private final TreeMap<Object, List<String>> ring = new TreeMap<Object, List<String>>();
+
+   private TokenRing(TokenFactory factory)
+   {
+      this.factory = factory;
+   }
+
+   /**
+    * Create token ring.
+    *
+    * @param partitioner the partitioner class name, as returned by describe_partitioner
+    * @param ranges the token ranges, as returned by describe_ring
+    * @return new token ring, or null if the partitioner is not supported
+    */
+   public static TokenRing create(String partitioner, List<TokenRange> ranges)
+   {
+      TokenFactory factory = getTokenFactory(partitioner);
+      if (factory == null || ranges == null || ranges.isEmpty())
+         return null;
+
+      TokenRing tr = new TokenRing(factory);
+      for (TokenRange range : ranges)
+      {
+         List<String> endpoints = range.getEndpoints();
+         if (endpoints != null && endpoints.isEmpty() == false)
+            tr.ring.put(factory.fromString(range.getEnd_token()), Collections.unmodifiableList(endpoints));
+      }
+      return tr.ring.isEmpty() ? null : tr;
+   }
+
+   private static TokenFactory getTokenFactory(String partitioner)
+   {
+      if (partitioner == null)
+         return null;
+      if (partitioner.endsWith(".RandomPartitioner"))
+         return RANDOM;
+      if (partitioner.endsWith(".ByteOrderedPartitioner"))
+         return BYTE_ORDERED;
+      if (partitioner.endsWith(".OrderPreservingPartitioner"))
+         return ORDER_PRESERVING;
+      return null;
+   }
+
+   /**
+    * Get the replicas of a key.
+    *
+    * @param key the row key
+    * @return the replica endpoints, primary replica first
+    */
+   public List<String> getEndpoints(byte[] key)
+   {
+      // a range owns (start, end], hence the first range ending at or after the token
+      SortedMap<Object, List<String>> tail = ring.tailMap(factory.fromKey(key));
+      return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+   }
+
+   private interface TokenFactory
+   {
+      Object fromString(String token);
+
+      Object fromKey(byte[] key);
+   }
+
+   private static final TokenFactory RANDOM = new TokenFactory()
+   {
+      public Object fromString(String token)
+      {
+         return new BigInteger(token);
+      }
+
+      public Object fromKey(byte[] key)
+      {
+         try
+         {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            return new BigInteger(md5.digest(key)).abs();
+         }
+         catch (Exception e)
+         {
+            throw new IllegalStateException(e);
+         }
+      }
+   };
+
+   private static final TokenFactory BYTE_ORDERED = new TokenFactory()
+   {
+      private final char[] digits = "0123456789abcdef".toCharArray();
+
+      public Object fromString(String token)
+      {
+         return token.toLowerCase();
+      }
+
+      public Object fromKey(byte[] key)
+      {
+         // lower case hex strings sort the same as the unsigned bytes
+         char[] chars = new char[key.length * 2];
+         for (int i = 0; i < key.length; i++)
+         {
+            chars[2 * i] = digits[(key[i] >> 4) & 0xf];
+            chars[2 * i + 1] = digits[key[i] & 0xf];
+         }
+         return new String(chars);
+      }
+   };
+
+   private static final TokenFactory ORDER_PRESERVING = new TokenFactory()
+   {
+      public Object fromString(String token)
+      {
+         return token;
+      }
+
+      public Object fromKey(byte[] key)
+      {
+         try
+         {
+            return new String(key, "UTF8");
+         }
+         catch (Exception e)
+         {
+            throw new IllegalStateException(e);
+         }
+      }
+   };
+}
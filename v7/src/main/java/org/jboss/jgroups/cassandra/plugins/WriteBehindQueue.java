@@ -0,0 +1,153 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.jgroups.cassandra.plugins;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jgroups.logging.Log;
+
+/**
+ * Bounded write-behind queue with a single flusher thread.
+ * <p/>
+ * Tasks are keyed; a new task replaces a still pending one with the same key,
+ * and moves to the end of the queue, so only the latest write of a key is executed.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class WriteBehindQueue
+{
+   private final Log log;
+   private final int capacity;
+   private final Map<Object, Runnable> pending = new LinkedHashMap<Object, Runnable>();
+   private final Thread flusher;
+   private boolean closed;
+
+   public WriteBehindQueue(String name, int capacity, Log log)
+   {
+      if (capacity < 1)
+         throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+      if (log == null)
+         throw new IllegalArgumentException("Null log");
+
+      this.capacity = capacity;
+      this.log = log;
+      flusher = new DaemonThreadFactory(name).newThread(new Runnable()
+      {
+         public void run()
+         {
+            flush();
+         }
+      });
+      flusher.start();
+   }
+
+   /**
+    * Queue the task.
+    *
+    * @param key the task key
+    * @param task the task
+    * @return false if the queue is full or closed, true otherwise
+    */
+   public synchronized boolean offer(Object key, Runnable task)
+   {
+      if (closed)
+         return false;
+
+      boolean collapsed = (pending.remove(key) != null);
+      if (collapsed == false && pending.size() >= capacity)
+         return false;
+
+      pending.put(key, task);
+      notifyAll();
+      return true;
+   }
+
+   private synchronized Runnable take() throws InterruptedException
+   {
+      while (pending.isEmpty())
+      {
+         if (closed)
+            return null;
+         wait();
+      }
+      Iterator<Runnable> iter = pending.values().iterator();
+      Runnable task = iter.next();
+      iter.remove();
+      return task;
+   }
+
+   private void flush()
+   {
+      try
+      {
+         Runnable task;
+         while ((task = take()) != null)
+         {
+            try
+            {
+               task.run();
+            }
+            catch (Throwable t)
+            {
+               log.warn("Write-behind task failed.", t);
+            }
+         }
+      }
+      catch (InterruptedException ignored)
+      {
+      }
+   }
+
+   /**
+    * Stop accepting tasks and flush the pending ones.
+    *
+    * @param timeout max time in milliseconds to wait for the flush
+    * @return number of pending tasks dropped at the deadline
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public int close(long timeout) throws InterruptedException
+   {
+      synchronized (this)
+      {
+         closed = true;
+         notifyAll();
+      }
+      flusher.join(Math.max(1, timeout));
+      synchronized (this)
+      {
+         int dropped = pending.size();
+         pending.clear();
+         if (flusher.isAlive())
+            flusher.interrupt();
+         return dropped;
+      }
+   }
+
+   public synchronized int size()
+   {
+      return pending.size();
+   }
+}
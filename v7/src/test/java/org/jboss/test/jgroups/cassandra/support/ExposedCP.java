@@ -36,6 +36,11 @@ import org.jgroups.protocols.PingData;
  */
 public class ExposedCP extends CASSANDRA_PING implements ExposedPing
 {
+   public void setPort(int port)
+   {
+      this.port = port;
+   }
+
    @Override
    public void init() throws Exception
    {
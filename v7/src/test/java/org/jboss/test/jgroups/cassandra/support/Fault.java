@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.jgroups.cassandra.support;
+
+import java.util.Random;
+
+/**
+ * Faults injected into the requests of a Thrift method.
+ * <p/>
+ * Each request is first delayed by latency and jitter, then it is either
+ * dropped (the connection is closed), stalled (forwarded late), timed out
+ * (the connection is closed late, without a response) or forwarded.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class Fault
+{
+   private long latency;
+   private long jitter;
+   private double dropRate;
+   private double stallRate;
+   private long stallTime = 1000;
+   private double timeoutRate;
+   private long timeoutTime = 5000;
+
+   /**
+    * Action for a single request.
+    */
+   public enum Action
+   {
+      FORWARD,
+      DROP,
+      STALL,
+      TIMEOUT
+   }
+
+   /**
+    * Delay before the request is handled.
+    *
+    * @param random the random
+    * @return delay in milliseconds
+    */
+   long delay(Random random)
+   {
+      return latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+   }
+
+   /**
+    * Pick the request's fate.
+    *
+    * @param random the random
+    * @return the action
+    */
+   Action action(Random random)
+   {
+      double dice = random.nextDouble();
+      if (dice < dropRate)
+         return Action.DROP;
+      dice -= dropRate;
+      if (dice < stallRate)
+         return Action.STALL;
+      dice -= stallRate;
+      if (dice < timeoutRate)
+         return Action.TIMEOUT;
+      return Action.FORWARD;
+   }
+
+   long getStallTime()
+   {
+      return stallTime;
+   }
+
+   long getTimeoutTime()
+   {
+      return timeoutTime;
+   }
+
+   public void setLatency(long latency)
+   {
+      this.latency = latency;
+   }
+
+   public void setJitter(long jitter)
+   {
+      this.jitter = jitter;
+   }
+
+   public void setDropRate(double dropRate)
+   {
+      this.dropRate = dropRate;
+   }
+
+   public void setStallRate(double stallRate)
+   {
+      this.stallRate = stallRate;
+   }
+
+   public void setStallTime(long stallTime)
+   {
+      this.stallTime = stallTime;
+   }
+
+   public void setTimeoutRate(double timeoutRate)
+   {
+      this.timeoutRate = timeoutRate;
+   }
+
+   public void setTimeoutTime(long timeoutTime)
+   {
+      this.timeoutTime = timeoutTime;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "latency=" + latency + "+" + jitter + "ms, drop=" + dropRate +
+            ", stall=" + stallRate + "/" + stallTime + "ms, timeout=" + timeoutRate + "/" + timeoutTime + "ms";
+   }
+}
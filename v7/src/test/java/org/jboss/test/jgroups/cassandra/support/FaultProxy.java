@@ -0,0 +1,337 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.jgroups.cassandra.support;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * TCP proxy in front of Cassandra, injecting faults per Thrift method.
+ * <p/>
+ * Requests are expected in framed transport with binary protocol,
+ * which is what the v7 ping uses. Responses are copied as they are.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class FaultProxy
+{
+   private static Logger log = Logger.getLogger(FaultProxy.class.getName());
+
+   private static final int VERSION_MASK = 0xffff0000;
+   private static final int VERSION_1 = 0x80010000;
+
+   private final String targetHost;
+   private final int targetPort;
+   private final ServerSocket serverSocket;
+   private final Random random = new Random();
+   private final ConcurrentMap<String, Fault> faults = new ConcurrentHashMap<String, Fault>();
+   private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+   private final Set<Socket> sockets = Collections.synchronizedSet(new HashSet<Socket>());
+   private volatile Fault defaultFault;
+   private volatile boolean closed;
+
+   public FaultProxy(String targetHost, int targetPort) throws IOException
+   {
+      this.targetHost = targetHost;
+      this.targetPort = targetPort;
+      serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+      fork("FaultProxy acceptor", new Runnable()
+      {
+         public void run()
+         {
+            accept();
+         }
+      });
+   }
+
+   public int getPort()
+   {
+      return serverSocket.getLocalPort();
+   }
+
+   /**
+    * Set fault for a method.
+    *
+    * @param method the Thrift method name, e.g. get_range_slices
+    * @param fault the fault, null to remove it
+    */
+   public void setFault(String method, Fault fault)
+   {
+      if (fault == null)
+         faults.remove(method);
+      else
+         faults.put(method, fault);
+   }
+
+   /**
+    * Set fault for methods without their own fault.
+    *
+    * @param fault the fault, null to remove it
+    */
+   public void setDefaultFault(Fault fault)
+   {
+      defaultFault = fault;
+   }
+
+   /**
+    * Remove all faults and close current connections.
+    */
+   public void reset()
+   {
+      faults.clear();
+      defaultFault = null;
+      requests.clear();
+      closeSockets();
+   }
+
+   /**
+    * Number of requests seen since the last reset.
+    *
+    * @param method the method name
+    * @return request count
+    */
+   public int getRequests(String method)
+   {
+      AtomicInteger count = requests.get(method);
+      return (count != null) ? count.get() : 0;
+   }
+
+   public void close()
+   {
+      closed = true;
+      try
+      {
+         serverSocket.close();
+      }
+      catch (IOException ignored)
+      {
+      }
+      closeSockets();
+   }
+
+   private void closeSockets()
+   {
+      Socket[] current;
+      synchronized (sockets)
+      {
+         current = sockets.toArray(new Socket[sockets.size()]);
+         sockets.clear();
+      }
+      for (Socket socket : current)
+         close(socket);
+   }
+
+   private void accept()
+   {
+      while (closed == false)
+      {
+         try
+         {
+            final Socket client = serverSocket.accept();
+            fork("FaultProxy " + client.getPort(), new Runnable()
+            {
+               public void run()
+               {
+                  handle(client);
+               }
+            });
+         }
+         catch (IOException e)
+         {
+            if (closed == false)
+               log.warning(e.getMessage());
+         }
+      }
+   }
+
+   private void handle(Socket client)
+   {
+      sockets.add(client);
+      Socket server = null;
+      try
+      {
+         server = new Socket(targetHost, targetPort);
+         sockets.add(server);
+         final InputStream response = server.getInputStream();
+         final OutputStream reply = client.getOutputStream();
+         fork("FaultProxy response " + client.getPort(), new Runnable()
+         {
+            public void run()
+            {
+               copy(response, reply);
+            }
+         });
+
+         DataInputStream in = new DataInputStream(client.getInputStream());
+         DataOutputStream out = new DataOutputStream(server.getOutputStream());
+         while (true)
+         {
+            int length = in.readInt();
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+
+            String method = methodName(frame);
+            AtomicInteger count = requests.get(method);
+            if (count == null)
+            {
+               AtomicInteger previous = requests.putIfAbsent(method, count = new AtomicInteger());
+               if (previous != null)
+                  count = previous;
+            }
+            count.incrementAndGet();
+
+            Fault fault = faults.get(method);
+            if (fault == null)
+               fault = defaultFault;
+            if (fault != null)
+            {
+               Thread.sleep(fault.delay(random));
+               switch (fault.action(random))
+               {
+                  case DROP:
+                     return;
+                  case STALL:
+                     Thread.sleep(fault.getStallTime());
+                     break;
+                  case TIMEOUT:
+                     Thread.sleep(fault.getTimeoutTime());
+                     return;
+               }
+            }
+
+            out.writeInt(length);
+            out.write(frame);
+            out.flush();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (IOException ignored)
+      {
+         // either side closed the connection
+      }
+      finally
+      {
+         close(client);
+         if (server != null)
+            close(server);
+      }
+   }
+
+   private static void copy(InputStream in, OutputStream out)
+   {
+      byte[] buffer = new byte[8192];
+      try
+      {
+         int n;
+         while ((n = in.read(buffer)) >= 0)
+         {
+            out.write(buffer, 0, n);
+            out.flush();
+         }
+      }
+      catch (IOException ignored)
+      {
+      }
+   }
+
+   /**
+    * Read the method name of a binary protocol message.
+    *
+    * @param frame the frame
+    * @return method name, or "unknown"
+    */
+   static String methodName(byte[] frame)
+   {
+      if (frame.length < 4)
+         return "unknown";
+
+      int first = readInt(frame, 0);
+      int offset;
+      int length;
+      if ((first & VERSION_MASK) == VERSION_1)
+      {
+         if (frame.length < 8)
+            return "unknown";
+         length = readInt(frame, 4);
+         offset = 8;
+      }
+      else
+      {
+         // old non-strict message, starts with the name
+         length = first;
+         offset = 4;
+      }
+      if (length < 0 || offset + length > frame.length)
+         return "unknown";
+
+      try
+      {
+         return new String(frame, offset, length, "UTF8");
+      }
+      catch (IOException e)
+      {
+         return "unknown";
+      }
+   }
+
+   private static int readInt(byte[] bytes, int offset)
+   {
+      return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+   }
+
+   private void close(Socket socket)
+   {
+      sockets.remove(socket);
+      try
+      {
+         socket.close();
+      }
+      catch (IOException ignored)
+      {
+      }
+   }
+
+   private static void fork(String name, Runnable runnable)
+   {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      thread.start();
+   }
+}
@@ -0,0 +1,120 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import org.jboss.jgroups.cassandra.plugins.DecodeCache;
+import org.jgroups.protocols.PingData;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Decode cache test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DecodeCacheTestCase
+{
+   @Test
+   public void testHit() throws Exception
+   {
+      DecodeCache cache = new DecodeCache(10);
+      byte[] bytes = encode(new PingData(UUID.randomUUID(), null, true));
+      PingData first = cache.decode(bytes);
+      // equal content in another array is a hit
+      Assert.assertSame(first, cache.decode(bytes.clone()));
+      Assert.assertEquals(1, cache.size());
+
+      PingData other = cache.decode(encode(new PingData(UUID.randomUUID(), null, true)));
+      Assert.assertNotSame(first, other);
+      Assert.assertEquals(2, cache.size());
+   }
+
+   @Test
+   public void testEviction() throws Exception
+   {
+      DecodeCache cache = new DecodeCache(2);
+      byte[] a = encode(new PingData(UUID.randomUUID(), null, true));
+      byte[] b = encode(new PingData(UUID.randomUUID(), null, true));
+      byte[] c = encode(new PingData(UUID.randomUUID(), null, true));
+
+      PingData da = cache.decode(a);
+      PingData db = cache.decode(b);
+      // touch a, so b is the least recently used
+      Assert.assertSame(da, cache.decode(a));
+      cache.decode(c);
+      Assert.assertEquals(2, cache.size());
+
+      Assert.assertSame(da, cache.decode(a));
+      PingData again = cache.decode(b);
+      Assert.assertNotSame(db, again);
+      Assert.assertEquals(db, again);
+      Assert.assertEquals(2, cache.size());
+   }
+
+   @Test
+   public void testInvalidBytes() throws Exception
+   {
+      DecodeCache cache = new DecodeCache(10);
+      try
+      {
+         cache.decode(new byte[]{1, 2, 3});
+         Assert.fail("Expected decoding error");
+      }
+      catch (Exception expected)
+      {
+      }
+      Assert.assertEquals(0, cache.size());
+   }
+
+   @Test
+   public void testClear() throws Exception
+   {
+      DecodeCache cache = new DecodeCache(10);
+      byte[] bytes = encode(new PingData(UUID.randomUUID(), null, true));
+      PingData first = cache.decode(bytes);
+      cache.clear();
+      Assert.assertEquals(0, cache.size());
+      Assert.assertNotSame(first, cache.decode(bytes));
+   }
+
+   @Test
+   public void testInvalidSize() throws Exception
+   {
+      try
+      {
+         new DecodeCache(0);
+         Assert.fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException expected)
+      {
+      }
+   }
+
+   private static byte[] encode(PingData data) throws Exception
+   {
+      return Util.streamableToByteBuffer(data);
+   }
+}
@@ -0,0 +1,241 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+* 
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.jgroups.cassandra.plugins.BaseCassandraSPI;
+import org.jboss.jgroups.cassandra.spi.CassandraSPI;
+import org.jboss.test.jgroups.cassandra.support.ExposedCP;
+import org.jboss.test.jgroups.cassandra.support.Fault;
+import org.jboss.test.jgroups.cassandra.support.FaultProxy;
+import org.jboss.test.jgroups.cassandra.support.Utils;
+import org.jgroups.Address;
+import org.jgroups.protocols.PingData;
+import org.jgroups.util.UUID;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Join latency while Cassandra is slow or flaky.
+ * <p/>
+ * A join is a fresh ping connecting, writing its own entry and reading all entries,
+ * all through a fault injecting proxy.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class FaultInjectionTestCase extends AbstractCassandraTest
+{
+   private static final String JGROUPS = "jgroups";
+   private static final String CLUSTER = "faults";
+   private static final int MEMBERS = 20;
+   private static final int JOINS = 30;
+
+   private FaultProxy proxy;
+   private List<Address> members;
+
+   @Override
+   protected boolean isCassandraRunning(String host, int port)
+   {
+      return Utils.isCassandraRunning(host, port);
+   }
+
+   @Before
+   public void create() throws Exception
+   {
+      if (isCassandraRunning() == false)
+         return;
+
+      CassandraSPI spi = new BaseCassandraSPI();
+      spi.createKeyspace(JGROUPS);
+      spi.createColumnFamily(JGROUPS, CLUSTER);
+
+      members = new ArrayList<Address>();
+      ExposedCP ping = new ExposedCP();
+      ping.init();
+      try
+      {
+         for (int i = 0; i < MEMBERS; i++)
+         {
+            Address address = UUID.randomUUID();
+            ping.writeToFile(new PingData(address, null, i == 0), CLUSTER);
+            members.add(address);
+         }
+      }
+      finally
+      {
+         ping.destroy();
+      }
+
+      proxy = new FaultProxy("localhost", 9160);
+   }
+
+   @After
+   public void destroy()
+   {
+      if (proxy != null)
+         proxy.close();
+
+      if (isCassandraRunning())
+      {
+         CassandraSPI spi = new BaseCassandraSPI();
+         spi.dropColumnFamily(JGROUPS, CLUSTER);
+         spi.dropKeyspace(JGROUPS);
+      }
+   }
+
+   @Test
+   public void testBaseline() throws Exception
+   {
+      if (isCassandraRunning() == false)
+         return;
+
+      Result result = run("baseline");
+      Assert.assertEquals(0, result.failed);
+      Assert.assertEquals(JOINS, result.complete);
+   }
+
+   @Test
+   public void testSlowReads() throws Exception
+   {
+      if (isCassandraRunning() == false)
+         return;
+
+      Fault fault = new Fault();
+      fault.setLatency(20);
+      fault.setJitter(30);
+      proxy.setFault("get_range_slices", fault);
+
+      Result result = run("slow reads");
+      Assert.assertEquals(JOINS, result.complete);
+      Assert.assertTrue(percentile(result.latencies, 50) >= 20);
+   }
+
+   @Test
+   public void testDroppedConnections() throws Exception
+   {
+      if (isCassandraRunning() == false)
+         return;
+
+      Fault fault = new Fault();
+      fault.setDropRate(0.1);
+      proxy.setDefaultFault(fault);
+
+      run("dropped connections");
+      Assert.assertTrue(proxy.getRequests("get_range_slices") > 0);
+   }
+
+   @Test
+   public void testStalledWrites() throws Exception
+   {
+      if (isCassandraRunning() == false)
+         return;
+
+      Fault fault = new Fault();
+      fault.setStallRate(0.2);
+      fault.setStallTime(300);
+      proxy.setFault("insert", fault);
+
+      Result result = run("stalled writes");
+      Assert.assertEquals(JOINS, result.complete);
+   }
+
+   @Test
+   public void testTimeouts() throws Exception
+   {
+      if (isCassandraRunning() == false)
+         return;
+
+      Fault fault = new Fault();
+      fault.setLatency(5);
+      fault.setTimeoutRate(0.05);
+      fault.setTimeoutTime(1000);
+      proxy.setDefaultFault(fault);
+
+      run("timeouts");
+      Assert.assertTrue(proxy.getRequests("get_range_slices") > 0);
+   }
+
+   private Result run(String scenario) throws Exception
+   {
+      Result result = new Result();
+      for (int i = 0; i < JOINS; i++)
+      {
+         Address address = UUID.randomUUID();
+         long start = System.nanoTime();
+         ExposedCP ping = new ExposedCP();
+         ping.setPort(proxy.getPort());
+         try
+         {
+            ping.init();
+         }
+         catch (IllegalArgumentException e)
+         {
+            // cannot connect
+            result.failed++;
+            continue;
+         }
+         try
+         {
+            ping.writeToFile(new PingData(address, null, false), CLUSTER);
+            List<PingData> found = ping.readAll(CLUSTER);
+            result.latencies.add((System.nanoTime() - start) / 1000000L);
+            // ping swallows failed ops, a join is complete if it saw the whole cluster
+            if (found.size() >= MEMBERS)
+               result.complete++;
+            ping.remove(CLUSTER, address);
+         }
+         finally
+         {
+            ping.destroy();
+         }
+      }
+
+      System.out.println(String.format("%-20s joins=%d complete=%d failed=%d p50=%dms p90=%dms p99=%dms max=%dms",
+            scenario, JOINS, result.complete, result.failed,
+            percentile(result.latencies, 50), percentile(result.latencies, 90), percentile(result.latencies, 99), percentile(result.latencies, 100)));
+      return result;
+   }
+
+   private static long percentile(List<Long> latencies, double percentile)
+   {
+      if (latencies.isEmpty())
+         return 0;
+
+      Long[] sorted = latencies.toArray(new Long[latencies.size()]);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+   }
+
+   private static class Result
+   {
+      private final List<Long> latencies = new ArrayList<Long>();
+      private int complete;
+      private int failed;
+   }
+}
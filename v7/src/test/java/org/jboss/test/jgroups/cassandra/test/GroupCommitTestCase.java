@@ -0,0 +1,229 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Mutation;
+import org.jboss.jgroups.cassandra.plugins.CassandraBackend;
+import org.jboss.jgroups.cassandra.plugins.ClientExecutor;
+import org.jboss.jgroups.cassandra.plugins.GroupCommit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Group commit test case, against a recording backend.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class GroupCommitTestCase
+{
+   private final RecordingBackend backend = new RecordingBackend();
+   private final GroupCommit commit = new GroupCommit(backend);
+
+   @Test
+   public void testSingleWriter() throws Throwable
+   {
+      commit.submit(key("a0"), "cf", new Mutation());
+      Assert.assertEquals(1, backend.calls.size());
+      Assert.assertEquals(keys("a0"), backend.calls.get(0));
+   }
+
+   @Test
+   public void testLeaderFlushesOnlyItsBatch() throws Exception
+   {
+      CountDownLatch first = backend.block(0);
+      CountDownLatch second = backend.block(1);
+
+      Writer leader = new Writer("a0");
+      backend.awaitFlush();
+      Writer w1 = new Writer("a1");
+      Writer w2 = new Writer("a2");
+      Thread.sleep(100);
+
+      first.countDown();
+      // one of the waiting writers flushes the second batch, the first leader is done
+      backend.awaitFlush();
+      leader.join(5000);
+      Assert.assertFalse(leader.isAlive());
+      Assert.assertTrue(w1.isAlive() && w2.isAlive());
+
+      second.countDown();
+      w1.join(5000);
+      w2.join(5000);
+      Assert.assertNull(leader.error);
+      Assert.assertNull(w1.error);
+      Assert.assertNull(w2.error);
+      Assert.assertEquals(2, backend.calls.size());
+      Assert.assertEquals(keys("a0"), backend.calls.get(0));
+      Assert.assertEquals(keys("a1", "a2"), backend.calls.get(1));
+   }
+
+   @Test
+   public void testSplitByEndpoint() throws Exception
+   {
+      CountDownLatch first = backend.block(0);
+      Writer leader = new Writer("a0");
+      backend.awaitFlush();
+      List<Writer> writers = Arrays.asList(new Writer("a1"), new Writer("b1"), new Writer("a2"));
+      Thread.sleep(100);
+      first.countDown();
+
+      leader.join(5000);
+      for (Writer writer : writers)
+      {
+         writer.join(5000);
+         Assert.assertNull(writer.error);
+      }
+      // the second batch goes out as one batch_mutate per replica
+      Assert.assertEquals(3, backend.calls.size());
+      Set<Set<String>> grouped = new HashSet<Set<String>>(backend.calls.subList(1, 3));
+      Assert.assertEquals(new HashSet<Set<String>>(Arrays.asList(keys("a1", "a2"), keys("b1"))), grouped);
+   }
+
+   @Test
+   public void testReplicaFailure() throws Exception
+   {
+      backend.failing = "replica-b";
+      CountDownLatch first = backend.block(0);
+      Writer leader = new Writer("a0");
+      backend.awaitFlush();
+      Writer a = new Writer("a1");
+      Writer b = new Writer("b1");
+      Thread.sleep(100);
+      first.countDown();
+
+      leader.join(5000);
+      a.join(5000);
+      b.join(5000);
+      Assert.assertNull(leader.error);
+      // the failure is reported to the whole batch, the other replica's part was written
+      Assert.assertTrue(a.error instanceof IllegalStateException);
+      Assert.assertTrue(b.error instanceof IllegalStateException);
+      Assert.assertEquals(2, backend.calls.size());
+      Assert.assertEquals(keys("a1"), backend.calls.get(1));
+   }
+
+   private static byte[] key(String key)
+   {
+      return key.getBytes();
+   }
+
+   private static Set<String> keys(String... keys)
+   {
+      return new HashSet<String>(Arrays.asList(keys));
+   }
+
+   private class Writer extends Thread
+   {
+      private final String key;
+      private volatile Throwable error;
+
+      private Writer(String key)
+      {
+         this.key = key;
+         start();
+      }
+
+      public void run()
+      {
+         try
+         {
+            commit.submit(key(key), "cf", new Mutation());
+         }
+         catch (Throwable t)
+         {
+            error = t;
+         }
+      }
+   }
+
+   private static class RecordingBackend extends CassandraBackend
+   {
+      private final List<Set<String>> calls = Collections.synchronizedList(new ArrayList<Set<String>>());
+      private final Map<Integer, CountDownLatch> gates = new ConcurrentHashMap<Integer, CountDownLatch>();
+      private final AtomicInteger count = new AtomicInteger();
+      private final Semaphore flushes = new Semaphore(0);
+      private volatile String failing;
+
+      private RecordingBackend()
+      {
+         super("localhost", 9160, "jgroups");
+      }
+
+      private CountDownLatch block(int call)
+      {
+         CountDownLatch gate = new CountDownLatch(1);
+         gates.put(call, gate);
+         return gate;
+      }
+
+      private void awaitFlush() throws InterruptedException
+      {
+         Assert.assertTrue(flushes.tryAcquire(5, TimeUnit.SECONDS));
+      }
+
+      @Override
+      protected String getEndpoint(byte[] key)
+      {
+         return "replica-" + (char) key[0];
+      }
+
+      @Override
+      public <T> T execute(byte[] key, ClientExecutor<T> executor) throws Throwable
+      {
+         CountDownLatch gate = gates.get(count.getAndIncrement());
+         flushes.release();
+         if (gate != null)
+            gate.await();
+         if (getEndpoint(key).equals(failing))
+            throw new IllegalStateException("Replica down");
+         return executor.execute(new Cassandra.Client(null)
+         {
+            @Override
+            public void batch_mutate(Map<ByteBuffer, Map<String, List<Mutation>>> mutations, ConsistencyLevel level)
+            {
+               Set<String> keys = new HashSet<String>();
+               for (ByteBuffer bb : mutations.keySet())
+                  keys.add(new String(bb.array()));
+               calls.add(keys);
+            }
+         });
+      }
+   }
+}
@@ -0,0 +1,138 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import org.jboss.jgroups.cassandra.plugins.HedgePolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Hedge policy test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class HedgePolicyTestCase
+{
+   @Test
+   public void testNoSamples() throws Exception
+   {
+      HedgePolicy policy = new HedgePolicy(95, 0.1, 5, 100);
+      Assert.assertEquals(5, policy.delay());
+   }
+
+   @Test
+   public void testPercentile() throws Exception
+   {
+      HedgePolicy policy = new HedgePolicy(95, 0.1, 0, 100);
+      for (int i = 100; i > 0; i--)
+         policy.record(i);
+      Assert.assertEquals(95, policy.delay());
+
+      policy = new HedgePolicy(100, 0.1, 0, 100);
+      policy.record(7);
+      Assert.assertEquals(7, policy.delay());
+   }
+
+   @Test
+   public void testMinDelay() throws Exception
+   {
+      HedgePolicy policy = new HedgePolicy(95, 0.1, 50, 10);
+      for (int i = 0; i < 10; i++)
+         policy.record(1);
+      Assert.assertEquals(50, policy.delay());
+   }
+
+   @Test
+   public void testWindow() throws Exception
+   {
+      HedgePolicy policy = new HedgePolicy(50, 0.1, 0, 10);
+      for (int i = 0; i < 10; i++)
+         policy.record(1000);
+      Assert.assertEquals(1000, policy.delay());
+
+      // older samples fall out of the window
+      for (int i = 0; i < 10; i++)
+         policy.record(1);
+      Assert.assertEquals(1, policy.delay());
+   }
+
+   @Test
+   public void testBudget() throws Exception
+   {
+      HedgePolicy policy = new HedgePolicy(95, 0.25, 0, 10);
+      Assert.assertFalse(policy.tryHedge());
+      for (int i = 0; i < 3; i++)
+      {
+         policy.onRead();
+         Assert.assertFalse(policy.tryHedge());
+      }
+      policy.onRead();
+      Assert.assertTrue(policy.tryHedge());
+      Assert.assertFalse(policy.tryHedge());
+   }
+
+   @Test
+   public void testNoBudget() throws Exception
+   {
+      HedgePolicy policy = new HedgePolicy(95, 0, 0, 10);
+      for (int i = 0; i < 100; i++)
+         policy.onRead();
+      Assert.assertFalse(policy.tryHedge());
+   }
+
+   @Test
+   public void testCreditCap() throws Exception
+   {
+      // a long quiet period doesn't allow a burst of hedges
+      HedgePolicy policy = new HedgePolicy(95, 1, 0, 10);
+      for (int i = 0; i < 1000; i++)
+         policy.onRead();
+      int hedges = 0;
+      while (policy.tryHedge())
+         hedges++;
+      Assert.assertEquals(10, hedges);
+   }
+
+   @Test
+   public void testInvalid() throws Exception
+   {
+      assertInvalid(0, 0.1, 10);
+      assertInvalid(101, 0.1, 10);
+      assertInvalid(95, -0.1, 10);
+      assertInvalid(95, 1.1, 10);
+      assertInvalid(95, 0.1, 0);
+   }
+
+   private static void assertInvalid(double percentile, double ratio, int window)
+   {
+      try
+      {
+         new HedgePolicy(percentile, ratio, 0, window);
+         Assert.fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException expected)
+      {
+      }
+   }
+}
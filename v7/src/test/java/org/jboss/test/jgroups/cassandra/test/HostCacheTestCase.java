@@ -0,0 +1,187 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.jgroups.cassandra.plugins.HostCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Host cache test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class HostCacheTestCase
+{
+   // sequence, checksum, publish time, length
+   private static final int HEADER = 28;
+
+   private File dir;
+   private final List<HostCache> caches = new ArrayList<HostCache>();
+
+   @Before
+   public void setUp()
+   {
+      dir = new File(System.getProperty("java.io.tmpdir"), "cassandra-ping-" + System.nanoTime());
+   }
+
+   @After
+   public void tearDown()
+   {
+      for (HostCache cache : caches)
+         cache.close();
+      File[] files = dir.listFiles();
+      if (files != null)
+      {
+         for (File file : files)
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+      }
+      //noinspection ResultOfMethodCallIgnored
+      dir.delete();
+   }
+
+   @Test
+   public void testPublish() throws Exception
+   {
+      HostCache holder = open(4096);
+      HostCache reader = open(4096);
+      Assert.assertNull(reader.read(0));
+
+      Assert.assertTrue(holder.isLeaseHolder());
+      Assert.assertFalse(reader.isLeaseHolder());
+      Assert.assertTrue(holder.publish(entries(3)));
+
+      List<byte[]> read = reader.read(0);
+      Assert.assertNotNull(read);
+      Assert.assertEquals(3, read.size());
+      for (int i = 0; i < 3; i++)
+         Assert.assertArrayEquals(entries(3).get(i), read.get(i));
+
+      Assert.assertTrue(holder.publish(entries(1)));
+      Assert.assertEquals(1, reader.read(0).size());
+   }
+
+   @Test
+   public void testMaxAge() throws Exception
+   {
+      HostCache cache = open(4096);
+      cache.publish(entries(1));
+      Thread.sleep(50);
+      Assert.assertNull(cache.read(10));
+      Assert.assertNotNull(cache.read(0));
+      Assert.assertNotNull(cache.read(60000));
+   }
+
+   @Test
+   public void testTooBig() throws Exception
+   {
+      HostCache cache = open(HEADER + 20);
+      Assert.assertFalse(cache.publish(entries(10)));
+      Assert.assertNull(cache.read(0));
+   }
+
+   @Test
+   public void testCorruptRecord() throws Exception
+   {
+      HostCache cache = open(4096);
+      cache.publish(entries(2));
+
+      // flip an entry byte behind the cache's back, as a torn write would leave it
+      RandomAccessFile raf = new RandomAccessFile(cache.getFile(), "rw");
+      try
+      {
+         raf.seek(HEADER + 12);
+         int b = raf.read();
+         raf.seek(HEADER + 12);
+         raf.write(b ^ 0xff);
+      }
+      finally
+      {
+         raf.close();
+      }
+      Assert.assertNull(cache.read(0));
+
+      Assert.assertTrue(cache.publish(entries(2)));
+      Assert.assertEquals(2, cache.read(0).size());
+   }
+
+   @Test
+   public void testWriterDied() throws Exception
+   {
+      HostCache cache = open(4096);
+      cache.publish(entries(2));
+
+      // an odd sequence means a write in progress
+      RandomAccessFile raf = new RandomAccessFile(cache.getFile(), "rw");
+      try
+      {
+         raf.writeLong(3);
+      }
+      finally
+      {
+         raf.close();
+      }
+      Assert.assertNull(cache.read(0));
+
+      // the next holder recovers
+      Assert.assertTrue(cache.publish(entries(1)));
+      Assert.assertEquals(1, cache.read(0).size());
+   }
+
+   @Test
+   public void testLeaseTakeover() throws Exception
+   {
+      HostCache holder = open(4096);
+      HostCache other = open(4096);
+      Assert.assertTrue(holder.isLeaseHolder());
+      Assert.assertFalse(other.isLeaseHolder());
+
+      holder.close();
+      Assert.assertFalse(holder.isLeaseHolder());
+      Assert.assertTrue(other.isLeaseHolder());
+   }
+
+   private HostCache open(int capacity) throws Exception
+   {
+      HostCache cache = HostCache.open(dir, "jgroups", "My/Cluster", capacity);
+      caches.add(cache);
+      return cache;
+   }
+
+   private static List<byte[]> entries(int size)
+   {
+      List<byte[]> entries = new ArrayList<byte[]>();
+      for (int i = 0; i < size; i++)
+         entries.add(("member-" + i).getBytes());
+      return entries;
+   }
+}
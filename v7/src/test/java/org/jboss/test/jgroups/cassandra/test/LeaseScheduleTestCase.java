@@ -0,0 +1,140 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.util.Random;
+
+import org.jboss.jgroups.cassandra.plugins.LeaseSchedule;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Lease schedule test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class LeaseScheduleTestCase
+{
+   @Test
+   public void testStretch() throws Exception
+   {
+      LeaseSchedule schedule = new LeaseSchedule(1000, 5000, 1.5, 0, new Random(1));
+      Assert.assertEquals(1500, schedule.next());
+      Assert.assertEquals(2250, schedule.next());
+      Assert.assertEquals(3375, schedule.next());
+      Assert.assertEquals(5000, schedule.next());
+      Assert.assertEquals(5000, schedule.next());
+   }
+
+   @Test
+   public void testViewChanged() throws Exception
+   {
+      LeaseSchedule schedule = new LeaseSchedule(1000, 5000, 2, 0, new Random(1));
+      Assert.assertEquals(2000, schedule.next());
+      Assert.assertEquals(4000, schedule.next());
+      Assert.assertEquals(1000, schedule.viewChanged());
+      // the refresh after a view change stays at the base interval
+      Assert.assertEquals(1000, schedule.next());
+      Assert.assertEquals(2000, schedule.next());
+   }
+
+   @Test
+   public void testMaxBelowInterval() throws Exception
+   {
+      LeaseSchedule schedule = new LeaseSchedule(1000, 10, 2, 0, new Random(1));
+      Assert.assertEquals(1000, schedule.next());
+      Assert.assertEquals(1000, schedule.next());
+   }
+
+   @Test
+   public void testFirst() throws Exception
+   {
+      Assert.assertEquals(0, new LeaseSchedule(1000, 5000, 1, 0, new FixedRandom(0)).first());
+      long last = new LeaseSchedule(1000, 5000, 1, 0, new FixedRandom(0.9999)).first();
+      Assert.assertTrue(last >= 0 && last < 1000);
+
+      LeaseSchedule schedule = new LeaseSchedule(1000, 5000, 1, 0, new Random(1));
+      for (int i = 0; i < 1000; i++)
+      {
+         long delay = schedule.first();
+         Assert.assertTrue(delay >= 0 && delay < 1000);
+      }
+   }
+
+   @Test
+   public void testJitterBounds() throws Exception
+   {
+      Assert.assertEquals(750, new LeaseSchedule(1000, 1000, 1, 0.25, new FixedRandom(0)).next());
+      Assert.assertEquals(1000, new LeaseSchedule(1000, 1000, 1, 0.25, new FixedRandom(0.5)).next());
+      long last = new LeaseSchedule(1000, 1000, 1, 0.25, new FixedRandom(0.9999)).next();
+      Assert.assertTrue(last > 1240 && last <= 1250);
+
+      // full jitter never goes negative
+      Assert.assertEquals(0, new LeaseSchedule(1000, 1000, 1, 1, new FixedRandom(0)).next());
+
+      LeaseSchedule schedule = new LeaseSchedule(1000, 1000, 1, 0.25, new Random(1));
+      for (int i = 0; i < 1000; i++)
+      {
+         long delay = schedule.next();
+         Assert.assertTrue(delay >= 750 && delay <= 1250);
+      }
+   }
+
+   @Test
+   public void testInvalid() throws Exception
+   {
+      assertInvalid(0, 1, 0);
+      assertInvalid(1000, 0.5, 0);
+      assertInvalid(1000, 1, -0.1);
+      assertInvalid(1000, 1, 1.1);
+   }
+
+   private static void assertInvalid(long interval, double stretch, double jitter)
+   {
+      try
+      {
+         new LeaseSchedule(interval, 5000, stretch, jitter, new Random());
+         Assert.fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException expected)
+      {
+      }
+   }
+
+   private static class FixedRandom extends Random
+   {
+      private final double value;
+
+      private FixedRandom(double value)
+      {
+         this.value = value;
+      }
+
+      @Override
+      public double nextDouble()
+      {
+         return value;
+      }
+   }
+}
@@ -0,0 +1,171 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.jgroups.cassandra.plugins.PriorityLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Priority limiter test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PriorityLimiterTestCase
+{
+   @Test
+   public void testBurst() throws Exception
+   {
+      PriorityLimiter limiter = new PriorityLimiter(10, 5);
+      long start = System.nanoTime();
+      for (int i = 0; i < 5; i++)
+         limiter.acquire(PriorityLimiter.Lane.READ);
+      Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 50);
+
+      // bucket is empty, the next token takes 100 ms
+      limiter.acquire(PriorityLimiter.Lane.READ);
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      Assert.assertTrue("Too fast: " + elapsed, elapsed >= 90);
+   }
+
+   @Test
+   public void testPriority() throws Exception
+   {
+      final PriorityLimiter limiter = new PriorityLimiter(5, 1);
+      limiter.acquire(PriorityLimiter.Lane.READ);
+
+      final List<PriorityLimiter.Lane> order = Collections.synchronizedList(new ArrayList<PriorityLimiter.Lane>());
+      Thread remove = acquire(limiter, PriorityLimiter.Lane.REMOVE, order);
+      Thread.sleep(20);
+      Thread write = acquire(limiter, PriorityLimiter.Lane.WRITE, order);
+      Thread.sleep(20);
+      Thread read = acquire(limiter, PriorityLimiter.Lane.READ, order);
+      remove.join(5000);
+      write.join(5000);
+      read.join(5000);
+
+      // the remove waited longest, but every token goes to the highest waiting lane
+      Assert.assertEquals(3, order.size());
+      Assert.assertEquals(PriorityLimiter.Lane.READ, order.get(0));
+      Assert.assertEquals(PriorityLimiter.Lane.WRITE, order.get(1));
+      Assert.assertEquals(PriorityLimiter.Lane.REMOVE, order.get(2));
+   }
+
+   @Test
+   public void testStarvation() throws Exception
+   {
+      final PriorityLimiter limiter = new PriorityLimiter(100, 1);
+      final AtomicBoolean reading = new AtomicBoolean(true);
+      List<Thread> readers = new ArrayList<Thread>();
+      for (int i = 0; i < 3; i++)
+      {
+         Thread reader = new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  while (reading.get())
+                     limiter.acquire(PriorityLimiter.Lane.READ);
+               }
+               catch (InterruptedException ignored)
+               {
+               }
+            }
+         };
+         reader.start();
+         readers.add(reader);
+      }
+      Thread.sleep(50);
+
+      final AtomicLong removed = new AtomicLong();
+      Thread remove = new Thread()
+      {
+         public void run()
+         {
+            try
+            {
+               limiter.acquire(PriorityLimiter.Lane.REMOVE);
+               removed.set(System.nanoTime());
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+         }
+      };
+      remove.start();
+
+      // a lower lane gets nothing while a higher one keeps waiting ...
+      Thread.sleep(300);
+      Assert.assertEquals(0, removed.get());
+      long stopped = System.nanoTime();
+      reading.set(false);
+      for (Thread reader : readers)
+         reader.join(5000);
+
+      // ... but is served as soon as the higher lane is done
+      remove.join(5000);
+      Assert.assertTrue(removed.get() >= stopped);
+   }
+
+   @Test
+   public void testInvalid() throws Exception
+   {
+      try
+      {
+         new PriorityLimiter(0, 1);
+         Assert.fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException expected)
+      {
+      }
+   }
+
+   private static Thread acquire(final PriorityLimiter limiter, final PriorityLimiter.Lane lane, final List<PriorityLimiter.Lane> order)
+   {
+      Thread thread = new Thread()
+      {
+         public void run()
+         {
+            try
+            {
+               limiter.acquire(lane);
+               order.add(lane);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+         }
+      };
+      thread.start();
+      return thread;
+   }
+}
@@ -0,0 +1,106 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.jgroups.cassandra.plugins.RateLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Rate limiter test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class RateLimiterTestCase
+{
+   @Test
+   public void testSpacing() throws Exception
+   {
+      RateLimiter limiter = new RateLimiter(100);
+      long start = System.nanoTime();
+      for (int i = 0; i < 21; i++)
+         limiter.acquire();
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      // the first op runs at once, the other 20 are 10 ms apart
+      Assert.assertTrue("Too fast: " + elapsed, elapsed >= 190);
+      Assert.assertTrue("Too slow: " + elapsed, elapsed < 1000);
+   }
+
+   @Test
+   public void testNoBurstAfterIdle() throws Exception
+   {
+      RateLimiter limiter = new RateLimiter(10);
+      limiter.acquire();
+      Thread.sleep(500);
+
+      // idle time isn't saved up, the second op still waits a full interval
+      long start = System.nanoTime();
+      limiter.acquire();
+      limiter.acquire();
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      Assert.assertTrue("Too fast: " + elapsed, elapsed >= 90);
+   }
+
+   @Test
+   public void testMultipleOps() throws Exception
+   {
+      RateLimiter limiter = new RateLimiter(100);
+      limiter.acquire(20);
+      long start = System.nanoTime();
+      limiter.acquire();
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      Assert.assertTrue("Too fast: " + elapsed, elapsed >= 190);
+   }
+
+   @Test
+   public void testInterrupt() throws Exception
+   {
+      RateLimiter limiter = new RateLimiter(1);
+      limiter.acquire();
+      Thread.currentThread().interrupt();
+      try
+      {
+         limiter.acquire();
+         Assert.fail("Expected InterruptedException");
+      }
+      catch (InterruptedException expected)
+      {
+      }
+   }
+
+   @Test
+   public void testInvalid() throws Exception
+   {
+      try
+      {
+         new RateLimiter(0);
+         Assert.fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException expected)
+      {
+      }
+   }
+}
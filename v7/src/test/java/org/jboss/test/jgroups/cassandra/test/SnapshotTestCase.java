@@ -0,0 +1,172 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.jgroups.cassandra.plugins.MembershipSnapshot;
+import org.jgroups.protocols.PingData;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Membership snapshot test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class SnapshotTestCase
+{
+   @Test
+   public void testRoundTrip() throws Exception
+   {
+      File dir = new File(System.getProperty("java.io.tmpdir"), "cassandra-ping-" + System.nanoTime());
+      MembershipSnapshot snapshot = MembershipSnapshot.create(dir, "jgroups", "My/Cluster");
+      try
+      {
+         Assert.assertNull(snapshot.read());
+
+         PingData data = new PingData(UUID.randomUUID(), null, true);
+         List<byte[]> entries = new ArrayList<byte[]>();
+         entries.add(Util.streamableToByteBuffer(data));
+         Assert.assertTrue(snapshot.write(entries));
+         Assert.assertFalse(snapshot.write(entries));
+
+         List<byte[]> read = MembershipSnapshot.create(dir, "jgroups", "My/Cluster").read();
+         Assert.assertNotNull(read);
+         Assert.assertEquals(1, read.size());
+         Assert.assertEquals(data, Util.streamableFromByteBuffer(PingData.class, read.get(0)));
+
+         entries.clear();
+         Assert.assertTrue(snapshot.write(entries));
+         read = snapshot.read();
+         Assert.assertNotNull(read);
+         Assert.assertTrue(read.isEmpty());
+      }
+      finally
+      {
+         snapshot.delete();
+         //noinspection ResultOfMethodCallIgnored
+         dir.delete();
+      }
+   }
+
+   @Test
+   public void testTruncated() throws Exception
+   {
+      byte[] bytes = serialize(Arrays.asList("A".getBytes(), "BC".getBytes()));
+      Assert.assertEquals(2, MembershipSnapshot.readEntries(bytes).size());
+
+      for (int length = 0; length < bytes.length; length++)
+      {
+         byte[] truncated = new byte[length];
+         System.arraycopy(bytes, 0, truncated, 0, length);
+         assertInvalid(truncated);
+      }
+   }
+
+   @Test
+   public void testCorruptSizes() throws Exception
+   {
+      // magic, version, size, then length and bytes per entry
+      byte[] bytes = serialize(Arrays.asList("ABC".getBytes()));
+
+      ByteBuffer.wrap(bytes).putInt(5, Integer.MAX_VALUE);
+      assertInvalid(bytes);
+      ByteBuffer.wrap(bytes).putInt(5, -1);
+      assertInvalid(bytes);
+
+      ByteBuffer.wrap(bytes).putInt(5, 1).putInt(9, Integer.MAX_VALUE);
+      assertInvalid(bytes);
+      ByteBuffer.wrap(bytes).putInt(9, -1);
+      assertInvalid(bytes);
+      ByteBuffer.wrap(bytes).putInt(9, 4);
+      assertInvalid(bytes);
+
+      ByteBuffer.wrap(bytes).putInt(9, 3);
+      Assert.assertEquals(1, MembershipSnapshot.readEntries(bytes).size());
+   }
+
+   @Test
+   public void testCorruptFile() throws Exception
+   {
+      File dir = new File(System.getProperty("java.io.tmpdir"), "cassandra-ping-" + System.nanoTime());
+      MembershipSnapshot snapshot = MembershipSnapshot.create(dir, "jgroups", "cluster");
+      try
+      {
+         List<byte[]> entries = new ArrayList<byte[]>();
+         entries.add("ABC".getBytes());
+         Assert.assertTrue(snapshot.write(entries));
+
+         byte[] bytes = serialize(entries);
+         ByteBuffer.wrap(bytes).putInt(5, Integer.MAX_VALUE);
+         FileOutputStream fos = new FileOutputStream(snapshot.getFile());
+         try
+         {
+            fos.write(bytes);
+         }
+         finally
+         {
+            fos.close();
+         }
+         Assert.assertNull(snapshot.read());
+      }
+      finally
+      {
+         snapshot.delete();
+         //noinspection ResultOfMethodCallIgnored
+         dir.delete();
+      }
+   }
+
+   private static byte[] serialize(List<byte[]> entries) throws IOException
+   {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(baos);
+      MembershipSnapshot.writeEntries(out, entries);
+      out.flush();
+      return baos.toByteArray();
+   }
+
+   private static void assertInvalid(byte[] bytes)
+   {
+      try
+      {
+         MembershipSnapshot.readEntries(bytes);
+         Assert.fail("Expected IOException");
+      }
+      catch (IOException expected)
+      {
+      }
+   }
+}
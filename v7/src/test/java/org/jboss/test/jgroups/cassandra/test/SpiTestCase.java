@@ -23,9 +23,19 @@
 
 package org.jboss.test.jgroups.cassandra.test;
 
+import java.nio.ByteBuffer;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.jboss.jgroups.cassandra.CASSANDRA_PING;
 import org.jboss.jgroups.cassandra.plugins.BaseCassandraSPI;
+import org.jboss.jgroups.cassandra.plugins.ClientExecutor;
 import org.jboss.jgroups.cassandra.spi.CassandraSPI;
 import org.jboss.test.jgroups.cassandra.support.Utils;
+import org.junit.Assert;
+import org.junit.Test;
 
 /**
  * SPI test case.
@@ -44,4 +54,83 @@ public class SpiTestCase extends AbstractSpiTest
    {
       return Utils.isCassandraRunning(host, port);
    }
+
+   @Test
+   public void testCreateReportsNewOnly() throws Exception
+   {
+      if (isCassandraRunning() == false)
+         return;
+
+      CassandraSPI spi = createSpi();
+
+      String keyspace = "qwert";
+      Assert.assertTrue(spi.createKeyspace(keyspace));
+      try
+      {
+         Assert.assertFalse(spi.createKeyspace(keyspace));
+         String columnFamily = "mycluster";
+         try
+         {
+            Assert.assertTrue(spi.createColumnFamily(keyspace, columnFamily));
+            Assert.assertFalse(spi.createColumnFamily(keyspace, columnFamily));
+         }
+         finally
+         {
+            spi.dropColumnFamily(keyspace, columnFamily);
+         }
+      }
+      finally
+      {
+         spi.dropKeyspace(keyspace);
+      }
+   }
+
+   @Test
+   public void testViewSnapshotDoesNotBlockDrop() throws Exception
+   {
+      if (isCassandraRunning() == false)
+         return;
+
+      InsertingSPI spi = new InsertingSPI();
+
+      String keyspace = "qwert";
+      spi.createKeyspace(keyspace);
+      try
+      {
+         String columnFamily = "mycluster";
+         try
+         {
+            spi.createColumnFamily(keyspace, columnFamily);
+            spi.insert(keyspace, columnFamily, CASSANDRA_PING.VIEW_KEY);
+            Assert.assertTrue(spi.isColumnFamilyEmpty(keyspace, columnFamily));
+            spi.insert(keyspace, columnFamily, "member".getBytes("UTF-8"));
+            Assert.assertFalse(spi.isColumnFamilyEmpty(keyspace, columnFamily));
+         }
+         finally
+         {
+            spi.dropColumnFamily(keyspace, columnFamily);
+         }
+      }
+      finally
+      {
+         spi.dropKeyspace(keyspace);
+      }
+   }
+
+   private static class InsertingSPI extends BaseCassandraSPI
+   {
+      void insert(final String keyspaceName, final String columnFamily, final byte[] key)
+      {
+         execute(new ClientExecutor<Object>()
+         {
+            public Object execute(Cassandra.Client client) throws Throwable
+            {
+               client.set_keyspace(keyspaceName);
+               Column column = new Column(ByteBuffer.wrap(CASSANDRA_PING.DATA), ByteBuffer.wrap(new byte[]{1}), System.currentTimeMillis());
+               client.insert(ByteBuffer.wrap(key), new ColumnParent(columnFamily), column, ConsistencyLevel.ONE);
+               return null;
+            }
+         });
+      }
+   }
 }
@@ -0,0 +1,106 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.cassandra.thrift.TokenRange;
+import org.jboss.jgroups.cassandra.plugins.TokenRing;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Token ring test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TokenRingTestCase
+{
+   @Test
+   public void testByteOrdered() throws Exception
+   {
+      List<TokenRange> ranges = new ArrayList<TokenRange>();
+      ranges.add(new TokenRange("40", "80", Arrays.asList("B")));
+      ranges.add(new TokenRange("80", "40", Arrays.asList("A")));
+
+      TokenRing ring = TokenRing.create("org.apache.cassandra.dht.ByteOrderedPartitioner", ranges);
+      Assert.assertNotNull(ring);
+      Assert.assertEquals("A", ring.getEndpoints(new byte[]{0x10}).get(0));
+      Assert.assertEquals("A", ring.getEndpoints(new byte[]{0x40}).get(0));
+      Assert.assertEquals("B", ring.getEndpoints(new byte[]{0x41}).get(0));
+      Assert.assertEquals("B", ring.getEndpoints(new byte[]{(byte) 0x80}).get(0));
+      Assert.assertEquals("A", ring.getEndpoints(new byte[]{(byte) 0xf0}).get(0));
+   }
+
+   @Test
+   public void testRandom() throws Exception
+   {
+      // tokens of known keys, smallest first
+      TreeMap<BigInteger, String> tokens = new TreeMap<BigInteger, String>();
+      for (int i = 0; i < 10; i++)
+      {
+         String key = "key-" + i;
+         tokens.put(token(key), key);
+      }
+      List<BigInteger> sorted = new ArrayList<BigInteger>(tokens.keySet());
+
+      List<TokenRange> ranges = new ArrayList<TokenRange>();
+      ranges.add(new TokenRange(sorted.get(2).toString(), sorted.get(0).toString(), Arrays.asList("A")));
+      ranges.add(new TokenRange(sorted.get(0).toString(), sorted.get(2).toString(), Arrays.asList("B")));
+
+      TokenRing ring = TokenRing.create("org.apache.cassandra.dht.RandomPartitioner", ranges);
+      Assert.assertNotNull(ring);
+      // a range owns (start, end]
+      Assert.assertEquals("A", endpoint(ring, tokens.get(sorted.get(0))));
+      Assert.assertEquals("B", endpoint(ring, tokens.get(sorted.get(1))));
+      Assert.assertEquals("B", endpoint(ring, tokens.get(sorted.get(2))));
+      // past the last token wraps around to the first range
+      for (int i = 3; i < sorted.size(); i++)
+         Assert.assertEquals("A", endpoint(ring, tokens.get(sorted.get(i))));
+   }
+
+   @Test
+   public void testUnsupported() throws Exception
+   {
+      List<TokenRange> ranges = new ArrayList<TokenRange>();
+      ranges.add(new TokenRange("a", "b", Arrays.asList("A")));
+      Assert.assertNull(TokenRing.create("org.apache.cassandra.dht.CollatingOrderPreservingPartitioner", ranges));
+   }
+
+   private static String endpoint(TokenRing ring, String key) throws Exception
+   {
+      return ring.getEndpoints(key.getBytes("UTF8")).get(0);
+   }
+
+   // RandomPartitioner's token of a key
+   private static BigInteger token(String key) throws Exception
+   {
+      return new BigInteger(MessageDigest.getInstance("MD5").digest(key.getBytes("UTF8"))).abs();
+   }
+}
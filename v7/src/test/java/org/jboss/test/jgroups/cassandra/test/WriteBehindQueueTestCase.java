@@ -0,0 +1,144 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright $today.year Red Hat Inc. and/or its affiliates and other
+* contributors as indicated by the @author tags. All rights reserved.
+* See the copyright.txt in the distribution for a full listing of
+* individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.jboss.test.jgroups.cassandra.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.jgroups.cassandra.plugins.WriteBehindQueue;
+import org.jgroups.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Write-behind queue test case.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class WriteBehindQueueTestCase
+{
+   private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+   private final CountDownLatch gate = new CountDownLatch(1);
+   private final CountDownLatch started = new CountDownLatch(1);
+
+   @Test
+   public void testSameKeyMerged() throws Exception
+   {
+      WriteBehindQueue queue = createBlocked(10);
+      Assert.assertTrue(queue.offer("A", task("A1")));
+      Assert.assertTrue(queue.offer("B", task("B1")));
+      Assert.assertTrue(queue.offer("A", task("A2")));
+      // only the latest write of A is kept, and it goes last
+      Assert.assertEquals(2, queue.size());
+
+      gate.countDown();
+      Assert.assertEquals(0, queue.close(5000));
+      Assert.assertEquals(Arrays.asList("gate", "B1", "A2"), executed);
+   }
+
+   @Test
+   public void testCapacity() throws Exception
+   {
+      WriteBehindQueue queue = createBlocked(2);
+      Assert.assertTrue(queue.offer("A", task("A1")));
+      Assert.assertTrue(queue.offer("B", task("B1")));
+      Assert.assertFalse(queue.offer("C", task("C1")));
+      // replacing a pending task doesn't need room
+      Assert.assertTrue(queue.offer("B", task("B2")));
+
+      gate.countDown();
+      Assert.assertEquals(0, queue.close(5000));
+      Assert.assertEquals(Arrays.asList("gate", "A1", "B2"), executed);
+   }
+
+   @Test
+   public void testFailedTask() throws Exception
+   {
+      WriteBehindQueue queue = createBlocked(10);
+      queue.offer("A", new Runnable()
+      {
+         public void run()
+         {
+            throw new IllegalStateException("Expected");
+         }
+      });
+      queue.offer("B", task("B1"));
+
+      gate.countDown();
+      Assert.assertEquals(0, queue.close(5000));
+      Assert.assertEquals(Arrays.asList("gate", "B1"), executed);
+   }
+
+   @Test
+   public void testCloseDeadline() throws Exception
+   {
+      WriteBehindQueue queue = createBlocked(10);
+      queue.offer("A", task("A1"));
+      queue.offer("B", task("B1"));
+
+      // the flusher is stuck, so both pending tasks are dropped
+      Assert.assertEquals(2, queue.close(50));
+      Assert.assertFalse(queue.offer("C", task("C1")));
+      gate.countDown();
+      Assert.assertEquals(Arrays.asList("gate"), executed);
+   }
+
+   private WriteBehindQueue createBlocked(int capacity) throws Exception
+   {
+      WriteBehindQueue queue = new WriteBehindQueue("write-behind test", capacity, LogFactory.getLog(getClass()));
+      queue.offer("gate", new Runnable()
+      {
+         public void run()
+         {
+            executed.add("gate");
+            started.countDown();
+            try
+            {
+               gate.await();
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+         }
+      });
+      // the flusher holds the gate task, everything else stays pending
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+      return queue;
+   }
+
+   private Runnable task(final String name)
+   {
+      return new Runnable()
+      {
+         public void run()
+         {
+            executed.add(name);
+         }
+      };
+   }
+}